@@ -0,0 +1,33 @@
+package flashcards;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON, by default to {@code bench-results.json},
+ * so that runs can be compared to track regressions.
+ * <p>
+ * Accepts the usual JMH options, e.g. {@code -p size=1000,10000000 -p keys=TERM CollectionBenchmark}
+ * to select deck sizes, key configurations and benchmarks, or {@code -rff other.json} for another file.
+ * The classpath needs the main module, this module and jmh-core; the benchmark metadata is generated
+ * by jmh-generator-annprocess when this module is compiled.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("bench-results.json");
+        }
+        new Runner(options.build()).run();
+    }
+}
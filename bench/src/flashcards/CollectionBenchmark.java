@@ -0,0 +1,106 @@
+package flashcards;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-card operations of {@link CardCollection}, by deck size and key configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"TERM,DEFINITION", "TERM"})
+    public String keys;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public StorageMode storage;
+
+    private CardCollection cards;
+    private CardProperty mainKey;
+    private Console console;
+    private int next;
+
+    @Setup
+    public void setup() {
+        cards = Decks.generate(size, Decks.keys(keys), storage);
+        mainKey = cards.getKeys()[0];
+        console = new Console(new Logger(1, Logger.Overflow.DROP_OLDEST), new Scanner(""),
+                new PrintWriter(Writer.nullWriter()), true);
+    }
+
+    private String existingKey() {
+        next = next + 1 == size ? 0 : next + 1;
+        return mainKey == CardProperty.TERM ? Decks.term(next) : Decks.definition(next);
+    }
+
+    /**
+     * add a new card and remove it again, so that the deck keeps its size
+     */
+    @Benchmark
+    public void addRemove() {
+        Card card = Decks.card(size);
+        cards.add(card);
+        cards.remove(mainKey, card.getProperty(mainKey));
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return cards.contains(mainKey, existingKey());
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return cards.contains(mainKey, "missing");
+    }
+
+    @Benchmark
+    public Card getCard() {
+        return cards.getCard(mainKey, existingKey());
+    }
+
+    @Benchmark
+    public Card randomCard() {
+        return cards.randomCard();
+    }
+
+    @Benchmark
+    public Card weightedCard() {
+        return cards.weightedCard();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void iterate(Blackhole blackhole) {
+        for (Card card : cards) {
+            blackhole.consume(card);
+        }
+    }
+
+    @Benchmark
+    public void hardestCards() {
+        Main.hardestCards(console, cards);
+    }
+}
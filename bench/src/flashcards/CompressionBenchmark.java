@@ -0,0 +1,85 @@
+package flashcards;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import and export of generated text decks, plain against gzip-compressed ({@code .gz}).
+ * Besides the time, each export reports the size of the file it wrote as {@code bytes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CompressionBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private CardCollection cards;
+    private Path input;
+    private Path output;
+
+    /**
+     * the size of the last file written, per iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FileSize {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String suffix = compressed ? ".txt" + Gzip.EXTENSION : ".txt";
+        cards = Decks.generate(size, Decks.keys("TERM,DEFINITION"));
+        input = Files.createTempFile("bench-deck", ".in" + suffix);
+        output = Files.createTempFile("bench-deck", ".out" + suffix);
+        DeckFormat.TEXT.write(cards, input.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public CardCollection importCards() throws IOException, ImportException {
+        return DeckFormat.TEXT.read(input.toString());
+    }
+
+    @Benchmark
+    public int exportCards(FileSize written) throws IOException {
+        int cardsWritten = DeckFormat.TEXT.write(cards, output.toString());
+        written.bytes = Files.size(output);
+        return cardsWritten;
+    }
+}
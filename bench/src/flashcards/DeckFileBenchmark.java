@@ -0,0 +1,69 @@
+package flashcards;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import and export of generated decks from 1k to 10M cards, in every {@link DeckFormat}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class DeckFileBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"TERM,DEFINITION", "TERM"})
+    public String keys;
+
+    @Param({"TEXT", "BINARY"})
+    public DeckFormat format;
+
+    private CardCollection cards;
+    private Path input;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cards = Decks.generate(size, Decks.keys(keys));
+        input = Files.createTempFile("bench-deck", ".in");
+        output = Files.createTempFile("bench-deck", ".out");
+        format.write(cards, input.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public CardCollection importCards() throws IOException, ImportException {
+        return format.read(input.toString());
+    }
+
+    @Benchmark
+    public int exportCards() throws IOException {
+        return format.write(cards, output.toString());
+    }
+}
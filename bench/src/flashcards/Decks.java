@@ -0,0 +1,59 @@
+package flashcards;
+
+import java.util.Arrays;
+
+/**
+ * Generated decks for the benchmarks.
+ */
+final class Decks {
+
+    private Decks() {
+    }
+
+    /**
+     * @param keys comma-separated key properties, main key first, e.g. {@code "TERM,DEFINITION"}
+     */
+    static CardProperty[] keys(String keys) {
+        return Arrays.stream(keys.split(",")).map(CardProperty::valueOf).toArray(CardProperty[]::new);
+    }
+
+    /**
+     * a deck of {@code size} cards with unique terms and definitions;
+     * every seventh card has failed a few times
+     */
+    static CardCollection generate(int size, CardProperty[] keys) {
+        return generate(size, keys, StorageMode.HEAP);
+    }
+
+    /**
+     * the deck of {@code generate(size, keys)} with its text kept as {@code storage} says
+     */
+    static CardCollection generate(int size, CardProperty[] keys, StorageMode storage) {
+        CardCollection cards = new CardCollection(keys, size, storage);
+        for (int i = 0; i < size; i++) {
+            cards.add(card(i));
+        }
+        for (int i = 0; i < size; i += 7) {
+            Card card = cards.findCard(keys[0], keys[0] == CardProperty.TERM ? term(i) : definition(i));
+            for (int f = i % 5; f >= 0; f--) {
+                cards.fail(card);
+            }
+        }
+        return cards;
+    }
+
+    static Card card(int i) {
+        Card card = new Card();
+        card.setProperty(CardProperty.TERM, term(i));
+        card.setProperty(CardProperty.DEFINITION, definition(i));
+        return card;
+    }
+
+    static String term(int i) {
+        return "term-" + i;
+    }
+
+    static String definition(int i) {
+        return "the definition of card number " + i;
+    }
+}
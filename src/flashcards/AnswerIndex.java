@@ -0,0 +1,135 @@
+package flashcards;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the cards of a collection by a property value as a learner would type it:
+ * exactly up to case and whitespace, or approximately through a {@link BkTree}.
+ * Kept up to date as a listener of the collection; all methods are synchronized so that
+ * the index can serve a collection shared between threads.
+ */
+public class AnswerIndex implements CollectionListener {
+
+    private final CardProperty property;
+    private final HashMap<String, LinkedHashSet<Card>> normalized = new HashMap<>();
+    /**
+     * built by the first {@code nearest}, so that exact lookups alone do not pay for the tree
+     */
+    private BkTree nearMatches;
+
+    AnswerIndex(Cards cards, CardProperty property) {
+        this(property);
+        for (Card card : cards) {
+            cardAdded(card);
+        }
+        cards.addListener(this);
+    }
+
+    /**
+     * an empty index, for collections that feed it themselves
+     */
+    AnswerIndex(CardProperty property) {
+        this.property = property;
+    }
+
+    /**
+     * lowercase, trim and collapse runs of whitespace into one space
+     */
+    public static String normalize(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = builder.length() > 0;
+            } else {
+                if (space) {
+                    builder.append(' ');
+                    space = false;
+                }
+                builder.append(c);
+            }
+        }
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param answer a value as typed
+     * @return a card whose value equals {@code answer} up to case and whitespace, or null
+     */
+    public synchronized Card find(String answer) {
+        return first(normalized.get(normalize(answer)));
+    }
+
+    /**
+     * @param answer a value as typed
+     * @param maxDistance the largest edit distance to accept, after normalization
+     * @return a card whose value is closest to {@code answer}, or null if none is close enough
+     */
+    public synchronized Card nearest(String answer, int maxDistance) {
+        if (nearMatches == null) {
+            nearMatches = new BkTree();
+            for (Map.Entry<String, LinkedHashSet<Card>> entry : normalized.entrySet()) {
+                for (int i = 0; i < entry.getValue().size(); i++) {
+                    nearMatches.add(entry.getKey());
+                }
+            }
+        }
+        String match = nearMatches.nearest(normalize(answer), maxDistance);
+        return match == null ? null : first(normalized.get(match));
+    }
+
+    @Override
+    public synchronized void cardAdded(Card card) {
+        add(card.getProperty(property), card);
+    }
+
+    @Override
+    public synchronized void cardRemoved(Card card) {
+        remove(card.getProperty(property), card);
+    }
+
+    @Override
+    public synchronized void propertyChanged(Card card, CardProperty changed, String oldValue) {
+        if (changed == property) {
+            remove(oldValue, card);
+            add(card.getProperty(property), card);
+        }
+    }
+
+    @Override
+    public synchronized void statsReset() {
+    }
+
+    @Override
+    public boolean observes(CardProperty changed) {
+        return changed == property;
+    }
+
+    private void add(String value, Card card) {
+        String key = normalize(value);
+        if (normalized.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(card) && nearMatches != null) {
+            nearMatches.add(key);
+        }
+    }
+
+    private void remove(String value, Card card) {
+        String key = normalize(value);
+        LinkedHashSet<Card> matches = normalized.get(key);
+        if (matches != null && matches.remove(card)) {
+            if (nearMatches != null) {
+                nearMatches.remove(key);
+            }
+            if (matches.isEmpty()) {
+                normalized.remove(key);
+            }
+        }
+    }
+
+    private static Card first(LinkedHashSet<Card> matches) {
+        return matches == null || matches.isEmpty() ? null : matches.iterator().next();
+    }
+}
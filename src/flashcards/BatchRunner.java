@@ -0,0 +1,233 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static flashcards.CardProperty.DEFINITION;
+import static flashcards.CardProperty.TERM;
+
+/**
+ * Runs a command script without prompts. A script has one command per line, its arguments
+ * separated by tabs:
+ * <pre>
+ * add&lt;TAB&gt;term&lt;TAB&gt;definition
+ * remove&lt;TAB&gt;term
+ * import&lt;TAB&gt;path
+ * merge&lt;TAB&gt;path&lt;TAB&gt;policy
+ * export&lt;TAB&gt;path
+ * reset stats
+ * </pre>
+ * where the policy is one of {@link MergePolicy}, e.g. {@code keep higher failure}.
+ * Blank lines and lines starting with {@code #} are skipped. Consecutive adds are applied as one
+ * batch; any other command first applies the pending adds, so the script's order is preserved.
+ */
+class BatchRunner {
+
+    static final int BATCH_SIZE = 1 << 16;
+    private static final CardProperty[] ADD_ORDER = {TERM, DEFINITION};
+
+    private enum Command {
+        ADD("add"),
+        REMOVE("remove"),
+        IMPORT("import"),
+        MERGE("merge"),
+        EXPORT("export"),
+        RESET_STATS("reset stats"),
+        ILLEGAL("illegal");
+
+        private final String name;
+
+        Command(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Console console;
+    private final Deck deck;
+    private final DeckFormat format;
+
+    private final String[] pending = new String[BATCH_SIZE * ADD_ORDER.length];
+    private int pendingCount;
+
+    private final Map<Command, long[]> counts = new EnumMap<>(Command.class);
+    private final Map<Command, long[]> nanos = new EnumMap<>(Command.class);
+    private long lines;
+
+    /**
+     * @param console reports the outcome of imports and exports, and the summary
+     * @param deck the cards to work on
+     * @param format deck file format, null to detect it per file
+     */
+    BatchRunner(Console console, Deck deck, DeckFormat format) {
+        this.console = console;
+        this.deck = deck;
+        this.format = format;
+        for (Command command : Command.values()) {
+            // applied, rejected
+            counts.put(command, new long[2]);
+            nanos.put(command, new long[1]);
+        }
+    }
+
+    /**
+     * run a script and print a summary
+     * @param path the script
+     * @throws IOException if the script cannot be read
+     */
+    void run(String path) throws IOException {
+        long start = System.nanoTime();
+        try (LineReader reader = new LineReader(FileChannel.open(Paths.get(path), StandardOpenOption.READ), 1 << 20)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                execute(line);
+            }
+        }
+        flushAdds();
+        report(System.nanoTime() - start);
+    }
+
+    private void execute(String line) {
+        if (line.isEmpty() || line.charAt(0) == '#') {
+            return;
+        }
+        int tab = line.indexOf('\t');
+        String name = tab < 0 ? line : line.substring(0, tab);
+        String arguments = tab < 0 ? null : line.substring(tab + 1);
+
+        if (name.equals(Command.ADD.name)) {
+            int split = arguments == null ? -1 : arguments.indexOf('\t');
+            if (split < 0) {
+                counts.get(Command.ILLEGAL)[1]++;
+                return;
+            }
+            pending[pendingCount * 2] = arguments.substring(0, split);
+            pending[pendingCount * 2 + 1] = arguments.substring(split + 1);
+            if (++pendingCount == BATCH_SIZE) {
+                flushAdds();
+            }
+            return;
+        }
+
+        flushAdds();
+        long begin = System.nanoTime();
+        Command command;
+        boolean applied;
+        if (name.equals(Command.RESET_STATS.name) && arguments == null) {
+            command = Command.RESET_STATS;
+            deck.cards().resetStats();
+            applied = true;
+        } else if (arguments == null) {
+            command = Command.ILLEGAL;
+            applied = false;
+        } else if (name.equals(Command.REMOVE.name)) {
+            command = Command.REMOVE;
+            applied = remove(arguments);
+        } else if (name.equals(Command.IMPORT.name)) {
+            command = Command.IMPORT;
+            applied = importDeck(arguments);
+        } else if (name.equals(Command.MERGE.name)) {
+            command = Command.MERGE;
+            applied = mergeDeck(arguments);
+        } else if (name.equals(Command.EXPORT.name)) {
+            command = Command.EXPORT;
+            applied = exportDeck(arguments);
+        } else {
+            command = Command.ILLEGAL;
+            applied = false;
+        }
+        counts.get(command)[applied ? 0 : 1]++;
+        nanos.get(command)[0] += System.nanoTime() - begin;
+    }
+
+    private void flushAdds() {
+        if (pendingCount == 0) {
+            return;
+        }
+        long begin = System.nanoTime();
+        int added = deck.cards().addNewLines(ADD_ORDER, pending, pendingCount);
+        counts.get(Command.ADD)[0] += added;
+        counts.get(Command.ADD)[1] += pendingCount - added;
+        nanos.get(Command.ADD)[0] += System.nanoTime() - begin;
+        pendingCount = 0;
+    }
+
+    private boolean remove(String term) {
+        Cards cards = deck.cards();
+        if (cards.findCard(TERM, term) == null) {
+            return false;
+        }
+        try {
+            cards.remove(TERM, term);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    private boolean importDeck(String path) {
+        try {
+            DeckFormat format = this.format == null ? DeckFormat.detect(path) : this.format;
+            deck.replace(format.read(path, deck.cards().getStorage()));
+            return true;
+        } catch (IOException e) {
+            console.output("Import failed: %s\n", e.getMessage());
+        } catch (ImportException e) {
+            console.output("Import failed: corrupted import file %s.\n", path);
+        }
+        return false;
+    }
+
+    private boolean mergeDeck(String arguments) {
+        int split = arguments.indexOf('\t');
+        MergePolicy policy = split < 0 ? null : MergePolicy.of(arguments.substring(split + 1));
+        if (policy == null) {
+            return false;
+        }
+        String path = arguments.substring(0, split);
+        try {
+            DeckFormat format = this.format == null ? DeckFormat.detect(path) : this.format;
+            console.output("Merged %s: %s\n", path, format.merge(path, deck.cards(), policy).summary());
+            return true;
+        } catch (IOException e) {
+            console.output("Merge failed: %s\n", e.getMessage());
+        } catch (ImportException e) {
+            console.output("Merge failed: corrupted import file %s.\n", path);
+        }
+        return false;
+    }
+
+    private boolean exportDeck(String path) {
+        try {
+            DeckFormat format = this.format == null ? DeckFormat.forPath(path) : this.format;
+            format.write(deck.cards(), path);
+            return true;
+        } catch (IOException e) {
+            console.output("Export failed: %s\n", e.getMessage());
+        }
+        return false;
+    }
+
+    private void report(long elapsed) {
+        long commands = 0;
+        for (long[] count : counts.values()) {
+            commands += count[0] + count[1];
+        }
+        console.output("Batch finished in %.3f s: %d lines, %d commands, %.0f commands/s.\n",
+                elapsed / 1e9, lines, commands, commands / Math.max(elapsed / 1e9, 1e-9));
+        for (Command command : Command.values()) {
+            long[] count = counts.get(command);
+            if (count[0] + count[1] == 0) {
+                continue;
+            }
+            console.output("  %-12s %10d applied %10d rejected %10.3f s\n",
+                    command.name, count[0], count[1], nanos.get(command)[0] / 1e9);
+        }
+        console.output("%d cards in the collection.\n\n", deck.cards().getSize());
+    }
+}
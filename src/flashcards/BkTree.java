@@ -0,0 +1,164 @@
+package flashcards;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Burkhard-Keller tree of strings under the Levenshtein distance, for nearest-match
+ * queries that only visit the part of the tree within the allowed distance.
+ * Removal leaves a tombstone; the tree is rebuilt once tombstones outnumber live words.
+ */
+public class BkTree {
+
+    private Node root;
+    private int live;
+    private int tombstones;
+
+    /**
+     * add one occurrence of {@code word}
+     */
+    public void add(String word) {
+        if (root == null) {
+            root = new Node(word);
+            live++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int distance = distance(word, node.word, Integer.MAX_VALUE);
+            if (distance == 0) {
+                if (node.count == 0) {
+                    tombstones--;
+                    live++;
+                }
+                node.count++;
+                return;
+            }
+            Node child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node(word));
+                live++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * remove one occurrence of {@code word}, if present
+     */
+    public void remove(String word) {
+        Node node = root;
+        while (node != null) {
+            int distance = distance(word, node.word, Integer.MAX_VALUE);
+            if (distance == 0) {
+                if (node.count > 0 && --node.count == 0) {
+                    live--;
+                    tombstones++;
+                    if (tombstones > live) {
+                        rebuild();
+                    }
+                }
+                return;
+            }
+            node = node.children.get(distance);
+        }
+    }
+
+    /**
+     * find the closest word within {@code maxDistance} of {@code query}
+     * @return the closest word, or null if there is none
+     */
+    public String nearest(String query, int maxDistance) {
+        String best = null;
+        int bestDistance = maxDistance + 1;
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            // pruning the children needs the exact distance, a leaf only needs to beat the best so far
+            int limit = node.children.isEmpty() ? bestDistance : Integer.MAX_VALUE;
+            int distance = distance(query, node.word, limit);
+            if (distance < bestDistance && node.count > 0) {
+                best = node.word;
+                bestDistance = distance;
+            }
+            // by the triangle inequality only children at |d - distance| < bestDistance can be closer
+            for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                if (Math.abs(child.getKey() - distance) < bestDistance) {
+                    pending.push(child.getValue());
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Levenshtein distance, or any value {@code >= limit} once the distance is known to reach {@code limit}
+     */
+    static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) >= limit) {
+            return limit;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (ca == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin >= limit) {
+                return limit;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private void rebuild() {
+        List<Node> words = new ArrayList<>();
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            if (node.count > 0) {
+                words.add(node);
+            }
+            pending.addAll(node.children.values());
+        }
+        root = null;
+        live = 0;
+        tombstones = 0;
+        for (Node node : words) {
+            for (int i = 0; i < node.count; i++) {
+                add(node.word);
+            }
+        }
+    }
+
+    private static class Node {
+        final String word;
+        final HashMap<Integer, Node> children = new HashMap<>(4);
+        int count = 1;
+
+        Node(String word) {
+            this.word = word;
+        }
+    }
+}
@@ -1,32 +1,57 @@
 package flashcards;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * A handle to one slot of a {@link CardStore}. A card that is not in any collection
+ * owns a single-slot store of its own.
+ */
 public class Card {
-    private final Map<CardProperty, String> cardInfo = new HashMap<>();
+    CardStore store;
+    int slot;
+
+    /**
+     * position in the dense index of a {@link ConcurrentCardCollection}, or the number of the card
+     * in the deck file of a {@link PagedCardCollection}; -1 if neither
+     */
+    int position = -1;
 
     Card() {
-        for (CardProperty p : CardProperty.values()) {
-            cardInfo.put(p, "");
-        }
+        this(new CardStore(null, 1));
+    }
+
+    /**
+     * bind a new card to a fresh slot of {@code store}
+     */
+    Card(CardStore store) {
+        store.append(this);
+    }
+
+    /**
+     * a handle to a slot that is already taken, for stores that keep no handles of their own
+     */
+    Card(CardStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
     }
 
     String getProperty(CardProperty p) {
-        return cardInfo.get(p);
+        return store.get(slot, p);
     }
 
     void setProperty(CardProperty p, String value) {
-        // return character is illegal.
-        String copy = value.replace('\n', ' ');
-        cardInfo.put(p, copy);
+        if (store.owner != null) {
+            store.owner.setProperty(this, p, value);
+        } else {
+            store.set(slot, p, value);
+        }
+    }
+
+    int getNumber(CardProperty p) {
+        return store.getNumber(slot, p);
     }
 
     Card copyOf() {
         Card clone = new Card();
-        for (CardProperty p : CardProperty.values()) {
-            clone.setProperty(p, cardInfo.get(p));
-        }
+        clone.store.copy(clone.slot, store, slot);
         return clone;
     }
 }
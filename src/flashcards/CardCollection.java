@@ -1,28 +1,91 @@
 package flashcards;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ConcurrentModificationException;
 import java.util.LinkedHashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.TreeMap;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.Random;
-import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
 
-public class CardCollection implements Iterable<Card> {
+/**
+ * {@link Cards} kept in a columnar {@link CardStore}, indexed by key, by failure count and by weight.
+ * Not thread-safe.
+ */
+public class CardCollection implements Cards {
+
+    /**
+     * the number of cards from which whole-collection passes run on the common fork-join pool
+     */
+    static final int PARALLEL_THRESHOLD = 100_000;
+
+    static final CardProperty[] SCHEDULING = {CardProperty.INTERVAL, CardProperty.EASE, CardProperty.DUE};
+    /**
+     * the properties of decks written before scheduling
+     */
+    static final CardProperty[] UNSCHEDULED_PROPERTIES = {CardProperty.TERM, CardProperty.DEFINITION,
+            CardProperty.FAILURE};
 
     /**
      * the mappings from Card keys to Cards
      */
-    private final HashMap<CardProperty, HashMap<String, Card>> cards;
+    private final HashMap<CardProperty, KeyIndex> cards;
     private final CardProperty MAIN_KEY;
     private final LinkedHashSet<CardProperty> KEYS;
     private int size;
 
+    /**
+     * the number of cards added or removed so far, for fail-fast iteration
+     */
+    private int modCount;
+
+    /**
+     * columnar storage of the cards; slots are dense and {@code Card.slot} is the slot of a card
+     */
+    private final CardStore store;
+    private final StorageMode storage;
+    private SplittableRandom random = new SplittableRandom();
+
+    /**
+     * failure counts by slot; a card is drawn by weighted sampling with
+     * weight equal to its failure count plus one
+     */
+    private final FenwickTree weights = new FenwickTree();
+
+    /**
+     * cards with at least one failure, grouped by failure count
+     */
+    private TreeMap<Integer, LinkedHashSet<Card>> failureBuckets = new TreeMap<>();
+    private int failedCards;
+
+    /**
+     * indexes of non-key properties, built on the first query by that property
+     */
+    private final HashMap<CardProperty, HashMap<String, LinkedHashSet<Card>>> secondary = new HashMap<>();
+
+    private final ArrayList<CollectionListener> listeners = new ArrayList<>();
+
+    /**
+     * normalized and near-match indexes of answers, built on first use
+     */
+    private final HashMap<CardProperty, AnswerIndex> answerIndexes = new HashMap<>();
+    /**
+     * the slots by due time, built by the first {@code dueCard}
+     */
+    private DueQueue dueQueue;
+
     /**
      * The {@code CardProperty[] keys} are used as keys for finding cards
      * @param keys an array of {@code CardProperty} that serve as keys;
@@ -30,17 +93,55 @@ public class CardCollection implements Iterable<Card> {
      * @throws IllegalArgumentException if no keys are provided
      */
     public CardCollection(CardProperty[] keys) {
+        this(keys, 16);
+    }
+
+    /**
+     * Create a collection with room for {@code expectedSize} cards without rehashing
+     * @param keys an array of {@code CardProperty} that serve as keys;
+     *                       the first key is used as the Main Key.
+     * @param expectedSize the number of cards the collection is expected to hold
+     * @throws IllegalArgumentException if no keys are provided
+     */
+    public CardCollection(CardProperty[] keys, int expectedSize) {
+        this(keys, expectedSize, StorageMode.HEAP);
+    }
+
+    /**
+     * Create a collection that keeps the text of its cards on the heap or off it
+     * @param keys an array of {@code CardProperty} that serve as keys;
+     *                       the first key is used as the Main Key.
+     * @param expectedSize the number of cards the collection is expected to hold
+     * @param storage where the text of the cards is kept
+     * @throws IllegalArgumentException if no keys are provided
+     */
+    public CardCollection(CardProperty[] keys, int expectedSize, StorageMode storage) {
         if (keys == null || keys.length == 0) {
             throw new IllegalArgumentException("Empty Key!");
         }
         MAIN_KEY = keys[0];
         KEYS = new LinkedHashSet<>(Arrays.asList(keys));
+        this.storage = storage;
+        store = new CardStore(this, expectedSize, storage);
         cards = new HashMap<>();
         for (CardProperty key : KEYS) {
-            cards.put(key, new HashMap<>());
+            cards.put(key, storage == StorageMode.OFF_HEAP
+                    ? new SlotKeyIndex(store, key, expectedSize) : new MapKeyIndex(expectedSize));
         }
     }
 
+    /**
+     * a read-only snapshot of {@code source} that shares its store and has no key indexes
+     */
+    private CardCollection(CardCollection source) {
+        MAIN_KEY = source.MAIN_KEY;
+        KEYS = source.KEYS;
+        storage = source.storage;
+        store = source.store.snapshot(this);
+        size = source.size;
+        cards = new HashMap<>();
+    }
+
     /**
      * Add a new card to the collection
      * @param card the new card to be added
@@ -56,12 +157,184 @@ public class CardCollection implements Iterable<Card> {
             }
         }
 
+        // move the values into the store; a card of another collection is copied instead
+        CardStore from = card.store;
+        int fromSlot = card.slot;
+        if (from.owner != null) {
+            card = new Card();
+        }
+        store.append(card);
+        store.copy(card.slot, from, fromSlot);
+
         for (CardProperty key : KEYS) {
             String thisKey = card.getProperty(key);
-            cards.get(key).put(thisKey, card);
+            cards.get(key).putIfAbsent(thisKey, card);
         }
 
+        indexCard(card);
+    }
+
+    /**
+     * Add a batch of cards given as raw property values, checking key uniqueness
+     * with a single lookup per key. Cards before a rejected one stay in the collection.
+     * @param order the property of each value of a card
+     * @param values {@code count * order.length} values, card after card
+     * @param count the number of cards
+     * @throws IllegalArgumentException if a card has a duplicated key or an illegal value
+     */
+    void addLines(CardProperty[] order, String[] values, int count) {
+        addLines(order, values, count, false);
+    }
+
+    /**
+     * Add a batch of cards given as raw property values, skipping the cards whose keys are taken.
+     * @param order the property of each value of a card
+     * @param values {@code count * order.length} values, card after card
+     * @param count the number of cards
+     * @return the number of cards added
+     * @throws IllegalArgumentException if a card has an illegal value
+     */
+    public int addNewLines(CardProperty[] order, String[] values, int count) {
+        return addLines(order, values, count, true);
+    }
+
+    private int addLines(CardProperty[] order, String[] values, int count, boolean skipDuplicates) {
+        store.ensureCapacity(size + count);
+        int width = order.length;
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            Card card = newSlot();
+            for (int j = 0; j < width; j++) {
+                try {
+                    store.set(card.slot, order[j], values[i * width + j]);
+                } catch (NumberFormatException e) {
+                    store.removeSwap(card.slot);
+                    throw new IllegalArgumentException("illegal value");
+                }
+            }
+            try {
+                commitSlot(card);
+                added++;
+            } catch (IllegalArgumentException e) {
+                if (!skipDuplicates) {
+                    throw e;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Bind a new card to the next free slot of the store, for loaders that write
+     * the columns directly. Must be followed by {@code commitSlot} before any other change.
+     * @return a card with empty properties; for an off-heap collection, a handle of the slot
+     * that is not the card of the slot, which the store makes when it is first asked for
+     */
+    Card newSlot() {
+        if (storage == StorageMode.OFF_HEAP) {
+            return new Card(store, store.append(null));
+        }
+        return new Card(store);
+    }
+
+    /**
+     * Index a card created by {@code newSlot}, or drop it if one of its keys is taken.
+     * @param card the card returned by the last {@code newSlot}
+     * @throws IllegalArgumentException if the card has a duplicated key
+     */
+    void commitSlot(Card card) {
+        for (CardProperty key : KEYS) {
+            if (cards.get(key).putIfAbsent(card.getProperty(key), card) != null) {
+                for (CardProperty inserted : KEYS) {
+                    if (inserted == key) {
+                        break;
+                    }
+                    cards.get(inserted).remove(card.getProperty(inserted));
+                }
+                store.removeSwap(card.slot);
+                throw new IllegalArgumentException("duplicated key!");
+            }
+        }
+        indexCard(card);
+    }
+
+    /**
+     * add a card that is already in the store and the key maps to the remaining indexes
+     */
+    private void indexCard(Card card) {
+        int failure = getFailure(card);
+        weights.append(failure);
+        if (failure > 0 || !secondary.isEmpty() || !listeners.isEmpty()) {
+            // the indexes and the listeners get the card of the slot
+            card = store.handle(card.slot);
+        }
+        addToBucket(card, failure);
+        for (Map.Entry<CardProperty, HashMap<String, LinkedHashSet<Card>>> index : secondary.entrySet()) {
+            addToIndex(index.getValue(), card.getProperty(index.getKey()), card);
+        }
         size++;
+        modCount++;
+        if (dueQueue != null) {
+            dueQueue.add(card.slot);
+        }
+        for (CollectionListener listener : listeners) {
+            listener.cardAdded(card);
+        }
+    }
+
+    /**
+     * make room for at least {@code capacity} cards
+     */
+    public void ensureCapacity(int capacity) {
+        store.ensureCapacity(capacity);
+        for (KeyIndex index : cards.values()) {
+            index.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * @param slot a slot in [0, getSize())
+     * @return the card stored in {@code slot}
+     */
+    Card cardAt(int slot) {
+        return store.handle(slot);
+    }
+
+    /**
+     * @return a view of this collection that does not change while it is read, for exporters
+     */
+    public CardCollection stableView() {
+        return this;
+    }
+
+    /**
+     * take a point-in-time copy of the cards in O(1), which another thread may read while this
+     * collection goes on changing; columns are copied on the first write the copy could see
+     * @return a copy that can be exported but finds no card by key and cannot be changed
+     */
+    public CardCollection snapshot() {
+        return new CardCollection(this);
+    }
+
+    /**
+     * @return where the text of the cards is kept
+     */
+    public StorageMode getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return the bytes of card text held outside the heap, 0 for a heap collection
+     */
+    public long offHeapBytes() {
+        return store.offHeapBytes();
+    }
+
+    /**
+     * @return the keys of this collection, main key first
+     */
+    public CardProperty[] getKeys() {
+        return KEYS.toArray(new CardProperty[0]);
     }
 
     /**
@@ -82,7 +355,35 @@ public class CardCollection implements Iterable<Card> {
         for (CardProperty keyName : KEYS) {
             cards.get(keyName).remove(thisCard.getProperty(keyName));
         }
+
+        removeFromBucket(thisCard, getFailure(thisCard));
+        for (Map.Entry<CardProperty, HashMap<String, LinkedHashSet<Card>>> index : secondary.entrySet()) {
+            removeFromIndex(index.getValue(), thisCard.getProperty(index.getKey()), thisCard);
+        }
+
+        // swap with the last card so that the slots have no holes, then detach the removed card
+        int slot = thisCard.slot;
+        weights.set(slot, weights.get(size - 1));
+        weights.removeLast();
+        Card detached = new Card();
+        detached.store.copy(detached.slot, store, slot);
+        store.removeSwap(slot);
+        if (slot < size - 1) {
+            // the last card took the freed slot
+            for (CardProperty keyName : KEYS) {
+                cards.get(keyName).moved(store.get(slot, keyName), size - 1, slot);
+            }
+        }
+        if (dueQueue != null) {
+            dueQueue.remove(slot, size - 1);
+        }
+        thisCard.store = detached.store;
+        thisCard.slot = detached.slot;
         size--;
+        modCount++;
+        for (CollectionListener listener : listeners) {
+            listener.cardRemoved(thisCard);
+        }
     }
 
     /**
@@ -92,18 +393,100 @@ public class CardCollection implements Iterable<Card> {
      * @return whether a card with that property value is in the collection
      */
     public boolean contains(CardProperty property, String value) {
-        CardProperty key;
-        if (!KEYS.contains(property)) {
-            for (Card card : cards.get(MAIN_KEY).values()) {
-                if (value.equals(card.getProperty(property))) {
-                    return true;
+        if (KEYS.contains(property)) {
+            return cards.get(property).get(value) != null;
+        }
+        if (property == CardProperty.FAILURE) {
+            int failure = parseFailure(value);
+            if (failure == 0) {
+                return size > failedCards;
+            }
+            return failure > 0 && failureBuckets.containsKey(failure);
+        }
+        return secondaryIndex(property).containsKey(value);
+    }
+
+    /**
+     * find every card with a given property value, through the key maps, the failure buckets
+     * or a secondary index built on the first query
+     * @param property the property to check
+     * @param value the value of the property
+     * @return the matching cards, empty if there is none
+     */
+    public List<Card> findCards(CardProperty property, String value) {
+        List<Card> found = new ArrayList<>();
+        if (KEYS.contains(property)) {
+            Card card = cards.get(property).get(value);
+            if (card != null) {
+                found.add(card);
+            }
+        } else if (property == CardProperty.FAILURE) {
+            int failure = parseFailure(value);
+            if (failure == 0) {
+                for (int slot = 0; slot < size; slot++) {
+                    if (getFailure(store.handle(slot)) == 0) {
+                        found.add(store.handle(slot));
+                    }
                 }
+            } else if (failure > 0 && failureBuckets.containsKey(failure)) {
+                found.addAll(failureBuckets.get(failure));
             }
-            return false;
         } else {
-            key = property;
+            LinkedHashSet<Card> matches = secondaryIndex(property).get(value);
+            if (matches != null) {
+                found.addAll(matches);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * returns the cards failed at least {@code k} times, by descending failure count
+     * @param k the minimum failure count
+     * @return the matching cards; every card if {@code k <= 0}
+     */
+    public List<Card> failuresAtLeast(int k) {
+        List<Card> found = new ArrayList<>();
+        for (LinkedHashSet<Card> bucket : failureBuckets.tailMap(Math.max(k, 1), true).descendingMap().values()) {
+            found.addAll(bucket);
+        }
+        if (k <= 0) {
+            for (int slot = 0; slot < size; slot++) {
+                if (getFailure(store.handle(slot)) == 0) {
+                    found.add(store.handle(slot));
+                }
+            }
         }
-        return cards.get(key).containsKey(value);
+        return found;
+    }
+
+    /**
+     * drop the secondary index of a property, if it has been built; it is rebuilt on the next query
+     * @param property a non-key property
+     */
+    public void dropIndex(CardProperty property) {
+        secondary.remove(property);
+    }
+
+    /**
+     * drop every secondary index
+     */
+    public void dropIndexes() {
+        secondary.clear();
+    }
+
+    /**
+     * returns the index of a property's values as a learner would type them, building it on first use
+     * @param property the property to index
+     * @return the index, kept up to date with this collection
+     */
+    public AnswerIndex answerIndex(CardProperty property) {
+        AnswerIndex index = answerIndexes.get(property);
+        if (index == null) {
+            index = new AnswerIndex(this, property);
+            answerIndexes.put(property, index);
+        }
+        return index;
     }
 
     /**
@@ -134,51 +517,285 @@ public class CardCollection implements Iterable<Card> {
         if (size == 0) {
             throw new NoSuchElementException("empty collection");
         }
-        Random random = new Random();
-        int randomInt = random.nextInt(size);
-        int increment = 0;
-        for (Card card : cards.get(MAIN_KEY).values()) {
-            if (increment == randomInt) {
-                return card;
+        return store.handle(random.nextInt(size));
+    }
+
+    /**
+     * returns a card drawn in proportion to its failure count plus one, so that
+     * cards that have never failed can still be drawn
+     * @return Card chosen randomly by weight
+     * @throws NoSuchElementException if the collection is empty
+     */
+    public Card weightedCard() {
+        if (size == 0) {
+            throw new NoSuchElementException("empty collection");
+        }
+        return cardAtTicket(random.nextLong(tickets()));
+    }
+
+    /**
+     * @return the number of tickets of a weighted draw: one per card, and one per failure
+     */
+    long tickets() {
+        return size + weights.total();
+    }
+
+    /**
+     * @param ticket a value in [0, tickets())
+     * @return the card that holds the ticket in a weighted draw
+     */
+    Card cardAtTicket(long ticket) {
+        // the first {@code size} tickets give every card weight one,
+        // the remaining ones are distributed by failure count
+        if (ticket < size) {
+            return store.handle((int) ticket);
+        }
+        return store.handle(weights.find(ticket - size));
+    }
+
+    /**
+     * returns the card due first, in O(1) once the due queue is built
+     * @return the card with the earliest due time; new cards are due at once
+     * @throws NoSuchElementException if the collection is empty
+     */
+    public Card dueCard() {
+        if (size == 0) {
+            throw new NoSuchElementException("empty collection");
+        }
+        if (dueQueue == null) {
+            dueQueue = new DueQueue(store, size);
+        }
+        return store.handle(dueQueue.peek());
+    }
+
+    /**
+     * record an answer to a card of this collection and schedule its next review
+     * @param card a card in this collection
+     * @param correct whether the answer was correct
+     * @throws IllegalArgumentException if the card is not in this collection
+     */
+    public void review(Card card, boolean correct) {
+        checkMember(card);
+        int[] next = Scheduler.next(card.getNumber(CardProperty.INTERVAL), card.getNumber(CardProperty.EASE),
+                correct, Scheduler.now());
+        setProperty(card, CardProperty.INTERVAL, String.valueOf(next[0]));
+        setProperty(card, CardProperty.EASE, String.valueOf(next[1]));
+        setProperty(card, CardProperty.DUE, String.valueOf(next[2]));
+    }
+
+    /**
+     * record a wrong answer to a card of this collection
+     * @param card a card in this collection
+     * @return the new failure count of the card
+     * @throws IllegalArgumentException if the card is not in this collection
+     */
+    public int fail(Card card) {
+        checkMember(card);
+        int failure = getFailure(card) + 1;
+        setFailure(card, failure);
+        return failure;
+    }
+
+    /**
+     * update a property of a card of this collection, keeping the key maps and indexes consistent
+     * @param card a card in this collection
+     * @param property the property to update
+     * @param value the new value
+     * @throws IllegalArgumentException if the card is not in this collection,
+     *                                  or if {@code value} would duplicate a key
+     */
+    public void setProperty(Card card, CardProperty property, String value) {
+        checkMember(card);
+        if (property == CardProperty.FAILURE) {
+            setFailure(card, value.isEmpty() ? 0 : Integer.parseInt(value));
+            return;
+        }
+        String oldValue = card.getProperty(property);
+        HashMap<String, LinkedHashSet<Card>> index = secondary.get(property);
+        if (index != null) {
+            removeFromIndex(index, oldValue, card);
+        }
+        if (KEYS.contains(property)) {
+            String newValue = value.replace('\n', ' ');
+            if (oldValue.equals(newValue)) {
+                return;
             }
-            increment++;
+            if (contains(property, newValue)) {
+                throw new IllegalArgumentException("duplicated key!");
+            }
+            cards.get(property).remove(oldValue);
+            cards.get(property).putIfAbsent(newValue, card);
+        }
+        store.set(card.slot, property, value);
+        if (property == CardProperty.DUE && dueQueue != null) {
+            dueQueue.update(card.slot);
+        }
+        if (index != null) {
+            addToIndex(index, card.getProperty(property), card);
+        }
+        for (CollectionListener listener : listeners) {
+            if (listener.observes(property)) {
+                listener.propertyChanged(card, property, oldValue);
+            }
+        }
+    }
+
+    /**
+     * reset the failure count of every card, in O(1)
+     */
+    public void resetStats() {
+        store.nextEpoch();
+        weights.clear();
+        failureBuckets = new TreeMap<>();
+        failedCards = 0;
+        for (CollectionListener listener : listeners) {
+            listener.statsReset();
         }
-        return null;
+    }
+
+    /**
+     * register a listener that is notified of every later mutation
+     * @param listener the listener to add
+     */
+    public void addListener(CollectionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeListener(CollectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * find a card of this collection without copying it; unlike {@code getCard}
+     * a miss is not an exception
+     * @param key the key used to find the card
+     * @param value the value of the key
+     * @return the card, or null if there is no such card
+     * @throws IllegalArgumentException if {@code key} is not in KEY.
+     */
+    public Card findCard(CardProperty key, String value) {
+        if (!KEYS.contains(key)) {
+            throw new IllegalArgumentException("not a key");
+        }
+        return cards.get(key).get(value);
+    }
+
+    /**
+     * @return the highest failure count in the collection, 0 if no card has failed
+     */
+    public int maxFailure() {
+        return failureBuckets.isEmpty() ? 0 : failureBuckets.lastKey();
+    }
+
+    /**
+     * returns the cards sharing the highest failure count, in O(k) for k such cards
+     * @return the hardest cards, empty if no card has failed
+     */
+    public List<Card> hardestCards() {
+        if (failureBuckets.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(failureBuckets.lastEntry().getValue());
+    }
+
+    /**
+     * returns up to {@code n} cards with at least one failure, by descending failure count
+     * @param n the maximum number of cards to return
+     * @return the hardest cards, hardest first
+     */
+    public List<Card> hardestCards(int n) {
+        List<Card> hardest = new ArrayList<>();
+        for (Map.Entry<Integer, LinkedHashSet<Card>> bucket : failureBuckets.descendingMap().entrySet()) {
+            for (Card card : bucket.getValue()) {
+                if (hardest.size() == n) {
+                    return hardest;
+                }
+                hardest.add(card);
+            }
+        }
+        return hardest;
+    }
+
+    /**
+     * reseed the generator used by {@code randomCard}, so that a sequence of draws can be reproduced
+     * @param seed the new seed
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
     }
 
     /**
      * write card collection to file
      * @param path file path
+     * @param compressed whether to gzip the file, chunk by chunk
      * @throws IOException if the path is invalid
      */
-    public int exportCards(String path) throws IOException {
-        File file = new File(path);
-        FileWriter fileWriter = new FileWriter(file);
-        CardProperty[] properties = CardProperty.values();
+    public int exportCards(String path, boolean compressed) throws IOException {
+        CardProperty[] properties = exportedProperties();
 
-        // header: title, size, keys, card properties
-        fileWriter.write("Card Collections\n");
-        fileWriter.write(String.format("%d\n", size));
-        for (CardProperty property : KEYS) {
-            fileWriter.append(property.toString());
-            fileWriter.append(' ');
+        // write cards: property1\n property2\n property3 ..., encoded in parallel for large collections
+        writeExport(path, compressed, size, getKeys(), properties, size, (from, to) -> {
+            StringBuilder chunk = new StringBuilder();
+            for (int slot = from; slot < to; slot++) {
+                for (CardProperty property : properties) {
+                    chunk.append(store.get(slot, property)).append('\n');
+                }
+            }
+            return chunk.toString().getBytes(StandardCharsets.UTF_8);
+        });
+        return size;
+    }
+
+    /**
+     * @return the properties that an export writes: all of them, but the scheduling properties only
+     * if a card has been scheduled, so that unscheduled decks stay readable by older readers
+     */
+    CardProperty[] exportedProperties() {
+        for (int slot = 0; slot < size; slot++) {
+            for (CardProperty property : SCHEDULING) {
+                if (store.getNumber(slot, property) != 0) {
+                    return CardProperty.values();
+                }
+            }
         }
-        fileWriter.append('\n');
-        for (CardProperty property : properties) {
-            fileWriter.append(property.toString());
-            fileWriter.append(' ');
+        return UNSCHEDULED_PROPERTIES;
+    }
+
+    /**
+     * write an export: the header, then the chunks of {@code slots} slots, each chunk compressed
+     * on the thread that encodes it if {@code compressed}
+     * @param size the number of cards in the header
+     * @param properties the properties of each card, in the order the encoder writes them
+     */
+    static void writeExport(String path, boolean compressed, int size, CardProperty[] keys,
+                            CardProperty[] properties, int slots, ParallelEncoder.ChunkEncoder encoder)
+            throws IOException {
+        byte[] header = exportHeader(size, keys, properties);
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ParallelEncoder.writeFully(channel, compressed ? Gzip.compress(header) : header);
+            ParallelEncoder.write(channel, slots, compressed ? Gzip.compressing(encoder) : encoder);
         }
-        fileWriter.append('\n');
+    }
 
-        // write cards: property1\n property2\n property3 ...
-        for (Card card : cards.get(MAIN_KEY).values()) {
-            for (CardProperty property : properties) {
-                fileWriter.append(card.getProperty(property));
-                fileWriter.append('\n');
-            }
+    /**
+     * @return the header of an export: title, size, keys, card properties
+     */
+    private static byte[] exportHeader(int size, CardProperty[] keys, CardProperty[] properties) {
+        StringBuilder header = new StringBuilder("Card Collections\n");
+        header.append(size).append('\n');
+        for (CardProperty property : keys) {
+            header.append(property.toString()).append(' ');
         }
-        fileWriter.close();
-        return size;
+        header.append('\n');
+        for (CardProperty property : properties) {
+            header.append(property.toString()).append(' ');
+        }
+        header.append('\n');
+        return header.toString().getBytes(StandardCharsets.UTF_8);
     }
 
     /**
@@ -189,69 +806,143 @@ public class CardCollection implements Iterable<Card> {
      * @throws ImportException if import file is illegal
      */
     public static CardCollection importCards(String path) throws IOException, ImportException {
-        File file = new File(path);
-        FileReader fileReader = new FileReader(file);
-        Scanner scanner = new Scanner(fileReader);
+        return importCards(path, new File(path).length() >= CardImporter.PARALLEL_THRESHOLD);
+    }
 
-        // check and read header: title, size, keys, card properties
-        int copySize;
-        LinkedHashSet<CardProperty> copyKeys = new LinkedHashSet<>();
-        LinkedHashSet<CardProperty> cardProperties = new LinkedHashSet<>();
-        CardCollection cardCollection;
+    /**
+     * import card collection
+     * @param path path to the file
+     * @param parallel whether to decode the cards on the common fork-join pool
+     * @return a CardCollection
+     * @throws IOException if file does not exist
+     * @throws ImportException if import file is illegal
+     */
+    public static CardCollection importCards(String path, boolean parallel) throws IOException, ImportException {
+        return new CardImporter(parallel).read(Paths.get(path));
+    }
 
-        try {
-            // title
-            String header = scanner.nextLine();
-            if(!"Card Collections".equals(header)) {
-                throw new ImportException("illegal import file: wrong header");
-            }
-            // size
-            copySize = scanner.nextInt();
-            scanner.nextLine();
-            // keys
-            String[] stringKeys = scanner.nextLine().split(" ");
-            for (String stringKey : stringKeys) {
-                CardProperty key = CardProperty.valueOf(stringKey);
-                if (copyKeys.contains(key)) {
-                    throw new ImportException("illegal import file: duplicated keys");
+    /**
+     * import card collection, decoding large files in parallel
+     * @param path path to the file
+     * @param storage where the text of the imported cards is kept
+     * @return the imported cards, left in the file if {@code storage} is {@code MAPPED}
+     * @throws IOException if file does not exist
+     * @throws ImportException if import file is illegal
+     */
+    public static Cards importCards(String path, StorageMode storage) throws IOException, ImportException {
+        return importCards(path, new File(path).length() >= CardImporter.PARALLEL_THRESHOLD, storage);
+    }
+
+    /**
+     * import card collection
+     * @param path path to the file
+     * @param parallel whether to decode the cards on the common fork-join pool
+     * @param storage where the text of the imported cards is kept
+     * @return the imported cards, left in the file if {@code storage} is {@code MAPPED}
+     * @throws IOException if file does not exist
+     * @throws ImportException if import file is illegal
+     */
+    public static Cards importCards(String path, boolean parallel, StorageMode storage)
+            throws IOException, ImportException {
+        if (storage == StorageMode.MAPPED && !Gzip.isGzip(Paths.get(path))) {
+            return new PagedCardCollection(DeckIndex.open(Paths.get(path)));
+        }
+        return new CardImporter(parallel, storage).read(Paths.get(path));
+    }
+
+    private void setFailure(Card card, int failure) {
+        int oldFailure = getFailure(card);
+        if (failure < 0) {
+            throw new IllegalArgumentException("negative failure count");
+        }
+        removeFromBucket(card, oldFailure);
+        store.setNumber(card.slot, CardProperty.FAILURE, failure);
+        weights.set(card.slot, failure);
+        addToBucket(card, failure);
+        if (observed(CardProperty.FAILURE)) {
+            String oldValue = oldFailure == 0 ? "" : Integer.toString(oldFailure);
+            for (CollectionListener listener : listeners) {
+                if (listener.observes(CardProperty.FAILURE)) {
+                    listener.propertyChanged(card, CardProperty.FAILURE, oldValue);
                 }
-                copyKeys.add(key);
             }
-            // card properties
-            String[] stringProperties = scanner.nextLine().split(" ");
-            if (stringProperties.length != CardProperty.values().length) {
-                throw new ImportException("illegal import file: wrong property length");
+        }
+    }
+
+    /**
+     * @return whether a listener observes changes of {@code property}
+     */
+    private boolean observed(CardProperty property) {
+        for (CollectionListener listener : listeners) {
+            if (listener.observes(property)) {
+                return true;
             }
-            for (String stringProperty : stringProperties) {
-                CardProperty property = CardProperty.valueOf(stringProperty);
-                if (cardProperties.contains(property)) {
-                    throw new ImportException("illegal import file: duplicate property");
-                }
-                cardProperties.add(property);
+        }
+        return false;
+    }
+
+    private HashMap<String, LinkedHashSet<Card>> secondaryIndex(CardProperty property) {
+        HashMap<String, LinkedHashSet<Card>> index = secondary.get(property);
+        if (index == null) {
+            index = new HashMap<>();
+            for (int slot = 0; slot < size; slot++) {
+                Card card = store.handle(slot);
+                addToIndex(index, card.getProperty(property), card);
             }
+            secondary.put(property, index);
+        }
+        return index;
+    }
 
-            // initialization
-            CardProperty[] keys = new CardProperty[copyKeys.size()];
-            copyKeys.toArray(keys);
-            cardCollection = new CardCollection(keys);
-
-            // read cards
-            for (int i = 0; i < copySize; i++) {
-                Card newCard = new Card();
-                for (CardProperty p : cardProperties) {
-                    String propertyValue = scanner.nextLine();
-                    newCard.setProperty(p, propertyValue);
-                }
-                cardCollection.add(newCard);
+    private static void addToIndex(HashMap<String, LinkedHashSet<Card>> index, String value, Card card) {
+        index.computeIfAbsent(value, v -> new LinkedHashSet<>()).add(card);
+    }
+
+    private static void removeFromIndex(HashMap<String, LinkedHashSet<Card>> index, String value, Card card) {
+        LinkedHashSet<Card> matches = index.get(value);
+        matches.remove(card);
+        if (matches.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    /**
+     * @return the failure count written as {@code value}, -1 if it is not a canonical failure count
+     */
+    private static int parseFailure(String value) {
+        if (value.isEmpty()) {
+            return 0;
+        }
+        try {
+            int failure = Integer.parseInt(value);
+            return failure > 0 && Integer.toString(failure).equals(value) ? failure : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void addToBucket(Card card, int failure) {
+        if (failure > 0) {
+            failureBuckets.computeIfAbsent(failure, f -> new LinkedHashSet<>()).add(card);
+            failedCards++;
+        }
+    }
+
+    private void removeFromBucket(Card card, int failure) {
+        if (failure > 0) {
+            LinkedHashSet<Card> bucket = failureBuckets.get(failure);
+            bucket.remove(card);
+            failedCards--;
+            if (bucket.isEmpty()) {
+                failureBuckets.remove(failure);
             }
+        }
+    }
 
-        } catch (Exception e) {
-            throw new ImportException("illegal import file");
-        } finally {
-            fileReader.close();
-            scanner.close();
+    private void checkMember(Card card) {
+        if (card.store != store) {
+            throw new IllegalArgumentException("not a card of this collection");
         }
-        return cardCollection;
     }
 
     /**
@@ -262,23 +953,134 @@ public class CardCollection implements Iterable<Card> {
         return size;
     }
 
+    /**
+     * @return an iterator over the cards in slot order, which allocates nothing per card;
+     * it throws {@code ConcurrentModificationException} if a card is added or removed
+     * other than through the iterator
+     */
     @Override
     public Iterator<Card> iterator() {
         return new CardIterator();
     }
 
+    /**
+     * @return a late-binding, fail-fast spliterator over the slots, split in halves
+     */
+    @Override
+    public Spliterator<Card> spliterator() {
+        return new CardSpliterator(0, -1, 0);
+    }
+
     private class CardIterator implements Iterator<Card> {
 
-        LinkedList<Card> keys = new LinkedList<>(cards.get(MAIN_KEY).values());
+        private int cursor;
+        private int last = -1;
+        private int expectedModCount = modCount;
 
         @Override
         public boolean hasNext() {
-            return keys.size() > 0;
+            return cursor < size;
         }
 
         @Override
         public Card next() {
-            return keys.pop();
+            checkForComodification();
+            if (cursor >= size) {
+                throw new NoSuchElementException();
+            }
+            last = cursor++;
+            return store.handle(last);
+        }
+
+        /**
+         * the last card takes the slot of the removed one, so it is visited next
+         */
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            CardCollection.this.remove(MAIN_KEY, store.get(last, MAIN_KEY));
+            cursor = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    private class CardSpliterator implements Spliterator<Card> {
+
+        private int index;
+        private int fence;
+        private int expectedModCount;
+
+        /**
+         * @param fence one past the last slot, -1 to bind to the size on first use
+         */
+        CardSpliterator(int origin, int fence, int expectedModCount) {
+            this.index = origin;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        private int getFence() {
+            if (fence < 0) {
+                expectedModCount = modCount;
+                fence = size;
+            }
+            return fence;
+        }
+
+        @Override
+        public Spliterator<Card> trySplit() {
+            int hi = getFence();
+            int mid = (index + hi) >>> 1;
+            if (index >= mid) {
+                return null;
+            }
+            CardSpliterator prefix = new CardSpliterator(index, mid, expectedModCount);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Card> action) {
+            int hi = getFence();
+            if (index >= hi) {
+                return false;
+            }
+            action.accept(store.handle(index++));
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Card> action) {
+            int hi = getFence();
+            for (; index < hi; index++) {
+                action.accept(store.handle(index));
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return getFence() - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL | Spliterator.DISTINCT;
         }
     }
 }
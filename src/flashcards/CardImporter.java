@@ -0,0 +1,253 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Streaming parser for the "Card Collections" text format written by {@code CardCollection.exportCards}.
+ * Gzip-compressed files are decompressed as they are read.
+ * The body is read in batches of cards; each batch is decoded (optionally in parallel
+ * on the common fork-join pool) and then inserted into the collection in one pass.
+ */
+class CardImporter {
+
+    static final String TITLE = "Card Collections";
+
+    /**
+     * files at least this large are decoded in parallel by default
+     */
+    static final long PARALLEL_THRESHOLD = 64L << 20;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BATCH_CARDS = 1 << 16;
+    private static final int DECODE_GRAIN = 1 << 12;
+    /**
+     * the most cards allocated up front for a stream of unknown length, e.g. a compressed file
+     */
+    private static final int PRESIZE_LIMIT = 1 << 20;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private final boolean parallel;
+    private final StorageMode storage;
+
+    CardImporter(boolean parallel) {
+        this(parallel, StorageMode.HEAP);
+    }
+
+    CardImporter(boolean parallel, StorageMode storage) {
+        this.parallel = parallel;
+        this.storage = storage;
+    }
+
+    /**
+     * read a whole collection from a file
+     * @param path path to the file
+     * @return the imported collection
+     * @throws IOException if the file cannot be read
+     * @throws ImportException if the file is not a legal card collection
+     */
+    CardCollection read(Path path) throws IOException, ImportException {
+        try (ReadableByteChannel channel = Gzip.open(path)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * read a whole collection from a channel, which is not closed
+     */
+    CardCollection read(ReadableByteChannel channel) throws IOException, ImportException {
+        LineReader reader = new LineReader(channel, BUFFER_SIZE);
+        Header header = readHeader(reader);
+        CardCollection cardCollection = new CardCollection(header.keys, presize(header, channel), storage);
+        readBody(reader, header, (values, count) -> cardCollection.addLines(header.properties, values, count));
+        return cardCollection;
+    }
+
+    /**
+     * stream the cards of a file into a live collection, batch by batch
+     * @param path path to the file
+     * @param target the collection to merge into
+     * @param policy what to do with a card whose keys are taken
+     * @return the counts of the merge; the cards merged before an error stay merged
+     * @throws IOException if the file cannot be read
+     * @throws ImportException if the file is not a legal card collection
+     */
+    MergeReport merge(Path path, Cards target, MergePolicy policy) throws IOException, ImportException {
+        try (ReadableByteChannel channel = Gzip.open(path)) {
+            LineReader reader = new LineReader(channel, BUFFER_SIZE);
+            Header header = readHeader(reader);
+            CardMerger merger = new CardMerger(target, policy, header.properties);
+            target.ensureCapacity((int) Math.min((long) target.getSize() + presize(header, channel), MAX_CAPACITY));
+            readBody(reader, header, merger::merge);
+            return merger.report();
+        }
+    }
+
+    /**
+     * receives the decoded cards of a batch
+     */
+    interface BatchConsumer {
+        /**
+         * @param values {@code count} cards of values in the order of the header, card after card
+         * @throws IllegalArgumentException if a card is rejected
+         */
+        void accept(String[] values, int count);
+    }
+
+    /**
+     * check and read header: title, size, keys, card properties
+     */
+    Header readHeader(LineReader reader) throws IOException, ImportException {
+        // title
+        if (!TITLE.equals(reader.readLine())) {
+            throw new ImportException("illegal import file: wrong header");
+        }
+        // size
+        Header header = new Header();
+        header.size = parseInt(reader.readLine(), "illegal import file: wrong size");
+        if (header.size < 0) {
+            throw new ImportException("illegal import file: wrong size");
+        }
+        // keys
+        LinkedHashSet<CardProperty> keys = new LinkedHashSet<>();
+        for (String stringKey : split(reader.readLine())) {
+            CardProperty key = parseProperty(stringKey);
+            if (!keys.add(key)) {
+                throw new ImportException("illegal import file: duplicated keys");
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new ImportException("illegal import file: no keys");
+        }
+        header.keys = keys.toArray(new CardProperty[0]);
+        // card properties
+        // files written before a property existed leave it empty
+        String[] stringProperties = split(reader.readLine());
+        LinkedHashSet<CardProperty> properties = new LinkedHashSet<>();
+        for (String stringProperty : stringProperties) {
+            if (!properties.add(parseProperty(stringProperty))) {
+                throw new ImportException("illegal import file: duplicate property");
+            }
+        }
+        if (!properties.containsAll(keys)) {
+            throw new ImportException("illegal import file: wrong property length");
+        }
+        header.properties = properties.toArray(new CardProperty[0]);
+        return header;
+    }
+
+    /**
+     * read {@code header.size} cards and pass them to {@code consumer} in batches
+     */
+    void readBody(LineReader reader, Header header, BatchConsumer consumer)
+            throws IOException, ImportException {
+        int width = header.properties.length;
+        int batchCards = Math.min(BATCH_CARDS, Math.max(header.size, 1));
+        LineReader.Batch batch = new LineReader.Batch(batchCards * width);
+        String[] lines = new String[batchCards * width];
+
+        int remaining = header.size;
+        while (remaining > 0) {
+            int cardsInBatch = Math.min(remaining, batchCards);
+            int lineCount = cardsInBatch * width;
+            batch.clear();
+            for (int i = 0; i < lineCount; i++) {
+                if (!reader.readLine(batch)) {
+                    throw new ImportException("illegal import file: missing cards");
+                }
+            }
+            decode(batch, lines, lineCount);
+            try {
+                consumer.accept(lines, cardsInBatch);
+            } catch (IllegalArgumentException e) {
+                throw new ImportException("illegal import file: " + e.getMessage());
+            }
+            remaining -= cardsInBatch;
+        }
+    }
+
+    /**
+     * the size in the header is not trusted: the collection is allocated for no more cards than
+     * the file can hold, at least one byte per line, and grows if the cards keep coming
+     * @return the number of cards to allocate for
+     */
+    static int presize(Header header, ReadableByteChannel channel) throws IOException {
+        long bound = channel instanceof FileChannel
+                ? ((FileChannel) channel).size() / header.properties.length
+                : PRESIZE_LIMIT;
+        return (int) Math.min(header.size, bound);
+    }
+
+    private void decode(LineReader.Batch batch, String[] lines, int count) {
+        if (parallel && count > DECODE_GRAIN) {
+            ForkJoinPool.commonPool().invoke(new Decode(batch, lines, 0, count));
+        } else {
+            for (int i = 0; i < count; i++) {
+                lines[i] = batch.get(i);
+            }
+        }
+    }
+
+    private static String[] split(String line) throws ImportException {
+        if (line == null) {
+            throw new ImportException("illegal import file: truncated header");
+        }
+        return line.split(" ");
+    }
+
+    private static int parseInt(String line, String message) throws ImportException {
+        try {
+            return Integer.parseInt(line.trim());
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new ImportException(message);
+        }
+    }
+
+    private static CardProperty parseProperty(String name) throws ImportException {
+        try {
+            return CardProperty.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new ImportException("illegal import file: unknown property " + name);
+        }
+    }
+
+    static class Header {
+        int size;
+        CardProperty[] keys;
+        CardProperty[] properties;
+    }
+
+    private static class Decode extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient LineReader.Batch batch;
+        private final String[] lines;
+        private final int from;
+        private final int to;
+
+        Decode(LineReader.Batch batch, String[] lines, int from, int to) {
+            this.batch = batch;
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= DECODE_GRAIN) {
+                for (int i = from; i < to; i++) {
+                    lines[i] = batch.get(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Decode(batch, lines, from, middle), new Decode(batch, lines, middle, to));
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package flashcards;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the mutations of a card collection.
+ * <p>
+ * A journal named {@code base} keeps a binary snapshot in {@code base.fcs} and appends every
+ * mutation of the attached collection to {@code base.journal}. Records are queued in memory and
+ * written by a background thread, which batches all records queued within a short window into
+ * one write and one fsync (group commit).
+ * <p>
+ * When the journal grows past a threshold it is sealed as {@code base.journal.sealed} and folded
+ * into a new snapshot on a compaction thread, which works on its own copy of the snapshot and never
+ * touches the live collection. Records hold absolute values, so replaying a sealed journal that was
+ * already folded into the snapshot does not change the result.
+ */
+public class CardJournal implements CollectionListener, Closeable {
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SET = 3;
+    private static final byte RESET = 4;
+
+    private static final long GROUP_COMMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long COMPACT_THRESHOLD = 64L << 20;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final Path sealedPath;
+    private final long compactThreshold;
+
+    /**
+     * guards the queue of records not yet handed to the flusher
+     */
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+    private long appended;
+    private long durable;
+    private boolean closed;
+    private IOException failure;
+    /**
+     * the listener on the journaled collection; what an earlier one still reports is dropped
+     */
+    private Binding binding;
+
+    /**
+     * guards the journal file, the snapshot file and the attached collection
+     */
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private long journalSize;
+    private Cards cards;
+    private CardProperty mainKey;
+
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    private final ExecutorService compactor;
+    private Future<?> compaction;
+
+    /**
+     * @param base path of the journal files, without extension
+     */
+    public CardJournal(String base) {
+        this(base, COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param base path of the journal files, without extension
+     * @param compactThreshold journal size in bytes above which it is folded into the snapshot
+     */
+    public CardJournal(String base, long compactThreshold) {
+        this.snapshotPath = Paths.get(base + DeckFormat.SNAPSHOT_EXTENSION);
+        this.journalPath = Paths.get(base + ".journal");
+        this.sealedPath = Paths.get(base + ".journal.sealed");
+        this.compactThreshold = compactThreshold;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return whether there is a snapshot, from which {@code recover} starts instead of its fallback
+     */
+    public boolean hasSnapshot() {
+        return Files.exists(snapshotPath);
+    }
+
+    /**
+     * rebuild the collection from the snapshot and the journal
+     * @param fallback the collection to start from if there is no snapshot yet
+     * @return the recovered collection
+     * @throws IOException if the files cannot be read
+     * @throws ImportException if the snapshot is illegal
+     */
+    public Cards recover(Cards fallback) throws IOException, ImportException {
+        Cards recovered = Files.exists(snapshotPath)
+                ? CardSnapshot.read(snapshotPath, fallback.getStorage()) : fallback;
+        if (Files.exists(sealedPath)) {
+            // the last compaction was interrupted
+            replay(sealedPath, recovered);
+        }
+        if (Files.exists(journalPath)) {
+            long valid = replay(journalPath, recovered);
+            try (FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                // drop a torn record at the end
+                journal.truncate(valid);
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * start journaling the mutations of {@code cards}; writes a first snapshot if there is none
+     * @param cards the collection to journal, usually the result of {@code recover}
+     * @throws IOException if the journal cannot be opened
+     */
+    public void attach(Cards cards) throws IOException {
+        synchronized (fileLock) {
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            journalSize = channel.size();
+            channel.position(journalSize);
+            if (!Files.exists(snapshotPath)) {
+                checkpoint(cards);
+            }
+            bind(cards);
+        }
+        flusher.start();
+    }
+
+    /**
+     * replace the journaled collection, e.g. after an import: the new collection is written as
+     * the snapshot and the journal starts over. The old collection is detached first, and the
+     * records it queued are written before the journal is emptied; the new collection must not
+     * change until this returns.
+     * @param cards the new collection
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void rebase(Cards cards) throws IOException {
+        unbind();
+        sync();
+        awaitCompaction();
+        synchronized (fileLock) {
+            checkpoint(cards);
+            Files.deleteIfExists(sealedPath);
+            bind(cards);
+        }
+    }
+
+    /**
+     * block until every record queued so far is on disk
+     * @throws IOException if the background writer has failed
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            long target = appended;
+            while (durable < target && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * flush the journal and stop the background threads
+     * @throws IOException if a write has failed
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        awaitCompaction();
+        compactor.shutdown();
+        unbind();
+        synchronized (fileLock) {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void cardAdded(Card card) {
+        synchronized (lock) {
+            int start = begin(ADD);
+            CardProperty[] properties = CardProperty.values();
+            reserve(1).put((byte) properties.length);
+            for (CardProperty p : properties) {
+                reserve(1).put((byte) p.ordinal());
+                putString(card.getProperty(p));
+            }
+            end(start);
+        }
+    }
+
+    @Override
+    public void cardRemoved(Card card) {
+        synchronized (lock) {
+            int start = begin(REMOVE);
+            putString(card.getProperty(mainKey));
+            end(start);
+        }
+    }
+
+    @Override
+    public void propertyChanged(Card card, CardProperty property, String oldValue) {
+        synchronized (lock) {
+            int start = begin(SET);
+            putString(property == mainKey ? oldValue : card.getProperty(mainKey));
+            reserve(1).put((byte) property.ordinal());
+            putString(card.getProperty(property));
+            end(start);
+        }
+    }
+
+    @Override
+    public void statsReset() {
+        synchronized (lock) {
+            end(begin(RESET));
+        }
+    }
+
+    /**
+     * apply the records of a journal file to {@code cards}
+     * @return the length of the valid prefix of the file
+     */
+    static long replay(Path path, Cards cards) throws IOException {
+        CardProperty mainKey = cards.getKeys()[0];
+        CardProperty[] properties = CardProperty.values();
+        CRC32 checksum = new CRC32();
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                byte[] body;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > 1 << 30) {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                    checksum.reset();
+                    checksum.update(body);
+                    if (in.readInt() != (int) checksum.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    apply(ByteBuffer.wrap(body), cards, mainKey, properties);
+                } catch (RuntimeException e) {
+                    // a record that does not decode was never fully written
+                    break;
+                }
+                valid += 8 + body.length;
+            }
+        }
+        return valid;
+    }
+
+    private static void apply(ByteBuffer record, Cards cards, CardProperty mainKey,
+                              CardProperty[] properties) {
+        switch (record.get()) {
+            case ADD: {
+                Card card = new Card();
+                int count = record.get();
+                for (int i = 0; i < count; i++) {
+                    CardProperty p = properties[record.get()];
+                    card.setProperty(p, getString(record));
+                }
+                // replace cards that hold any of the new keys, so that replay is idempotent
+                for (CardProperty key : cards.getKeys()) {
+                    Card existing = cards.findCard(key, card.getProperty(key));
+                    if (existing != null) {
+                        cards.remove(mainKey, existing.getProperty(mainKey));
+                    }
+                }
+                cards.add(card);
+                break;
+            }
+            case REMOVE: {
+                try {
+                    cards.remove(mainKey, getString(record));
+                } catch (NoSuchElementException e) {
+                    // already removed in the snapshot
+                }
+                break;
+            }
+            case SET: {
+                Card card = cards.findCard(mainKey, getString(record));
+                CardProperty p = properties[record.get()];
+                String value = getString(record);
+                if (card != null) {
+                    cards.setProperty(card, p, value);
+                }
+                break;
+            }
+            case RESET:
+                cards.resetStats();
+                break;
+            default:
+                throw new IllegalStateException("unknown record");
+        }
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    /**
+     * start listening to {@code cards}; caller holds fileLock
+     */
+    private void bind(Cards cards) {
+        this.cards = cards;
+        Binding listener = new Binding();
+        synchronized (lock) {
+            mainKey = cards.getKeys()[0];
+            binding = listener;
+        }
+        cards.addListener(listener);
+    }
+
+    /**
+     * stop listening to the journaled collection, dropping what it reports from now on even if
+     * a change already under way reports it late
+     */
+    private void unbind() {
+        Binding stale;
+        synchronized (lock) {
+            stale = binding;
+            binding = null;
+        }
+        if (stale != null) {
+            synchronized (fileLock) {
+                cards.removeListener(stale);
+            }
+        }
+    }
+
+    /**
+     * write {@code cards} as the snapshot and empty the journal; caller holds fileLock
+     */
+    private void checkpoint(Cards cards) throws IOException {
+        writeSnapshot(cards);
+        channel.truncate(0);
+        channel.position(0);
+        journalSize = 0;
+    }
+
+    private void writeSnapshot(Cards cards) throws IOException {
+        Path temp = Paths.get(snapshotPath + ".tmp");
+        CardSnapshot.write(cards.stableView(), temp);
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // record framing: int length, body (type and payload), int crc of the body
+
+    private int begin(byte type) {
+        int start = reserve(5).position();
+        pending.putInt(0);
+        pending.put(type);
+        return start;
+    }
+
+    private void end(int start) {
+        int length = pending.position() - start - 4;
+        pending.putInt(start, length);
+        crc.reset();
+        crc.update(pending.array(), start + 4, length);
+        reserve(4).putInt((int) crc.getValue());
+        appended++;
+        lock.notifyAll();
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        reserve(4 + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    private ByteBuffer reserve(int n) {
+        if (pending.remaining() < n) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + n));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        return pending;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long batchEnd;
+            synchronized (lock) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+            }
+            if (!closed) {
+                // let records arriving meanwhile join this group
+                LockSupport.parkNanos(GROUP_COMMIT_NANOS);
+            }
+            synchronized (lock) {
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = appended;
+            }
+            try {
+                synchronized (fileLock) {
+                    writing.flip();
+                    journalSize += writing.remaining();
+                    while (writing.hasRemaining()) {
+                        channel.write(writing);
+                    }
+                    channel.force(false);
+                    writing.clear();
+                    if (journalSize >= compactThreshold && !Files.exists(sealedPath)) {
+                        seal();
+                    }
+                }
+                synchronized (lock) {
+                    durable = batchEnd;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * move the journal aside and fold it into the snapshot in the background; caller holds fileLock
+     */
+    private void seal() throws IOException {
+        channel.close();
+        Files.move(journalPath, sealedPath, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        journalSize = 0;
+        StorageMode storage = cards.getStorage();
+        compaction = compactor.submit(() -> {
+            try {
+                CardCollection folded = CardSnapshot.read(snapshotPath, storage);
+                replay(sealedPath, folded);
+                Path temp = Paths.get(snapshotPath + ".tmp");
+                CardSnapshot.write(folded, temp);
+                synchronized (fileLock) {
+                    Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    Files.delete(sealedPath);
+                }
+            } catch (IOException | ImportException e) {
+                synchronized (lock) {
+                    failure = new IOException("compaction failed: " + e.getMessage(), e);
+                    lock.notifyAll();
+                }
+            }
+        });
+    }
+
+    private void awaitCompaction() throws IOException {
+        Future<?> running;
+        synchronized (fileLock) {
+            running = compaction;
+        }
+        if (running == null) {
+            return;
+        }
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException("compaction failed", e.getCause());
+        }
+    }
+
+    /**
+     * the listener of one journaled collection, which records changes while it is the current one
+     */
+    private final class Binding implements CollectionListener {
+
+        @Override
+        public void cardAdded(Card card) {
+            synchronized (lock) {
+                if (binding == this) {
+                    CardJournal.this.cardAdded(card);
+                }
+            }
+        }
+
+        @Override
+        public void cardRemoved(Card card) {
+            synchronized (lock) {
+                if (binding == this) {
+                    CardJournal.this.cardRemoved(card);
+                }
+            }
+        }
+
+        @Override
+        public void propertyChanged(Card card, CardProperty property, String oldValue) {
+            synchronized (lock) {
+                if (binding == this) {
+                    CardJournal.this.propertyChanged(card, property, oldValue);
+                }
+            }
+        }
+
+        @Override
+        public void statsReset() {
+            synchronized (lock) {
+                if (binding == this) {
+                    CardJournal.this.statsReset();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package flashcards;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges batches of cards, given as raw property values, into a live collection.
+ * Each card costs one lookup per key of the collection; a card whose keys are free is added,
+ * and a conflict is resolved by the {@link MergePolicy}. Cards of the same file conflict with
+ * each other like with any other card, since every card is applied before the next one is checked.
+ */
+class CardMerger {
+
+    private static final int BATCH_CARDS = 1 << 12;
+
+    private final Cards target;
+    private final MergePolicy policy;
+    private final CardProperty[] order;
+    private final CardProperty[] keys;
+    /**
+     * the column of each key of the target in a card's values
+     */
+    private final int[] keyColumns;
+    private final int failureColumn;
+    private final Card[] conflicts;
+    private final String[] row;
+    /**
+     * the next number to try for each renamed value, one map per key, so that renaming stays O(1)
+     */
+    private final List<HashMap<String, Integer>> suffixes = new ArrayList<>();
+    private final MergeReport report = new MergeReport();
+
+    /**
+     * @param target the collection to merge into
+     * @param policy what to do with a card whose keys are taken
+     * @param order the property of each value of a card
+     * @throws ImportException if a key of the target is not among the properties
+     */
+    CardMerger(Cards target, MergePolicy policy, CardProperty[] order) throws ImportException {
+        this.target = target;
+        this.policy = policy;
+        this.order = order;
+        this.keys = target.getKeys();
+        keyColumns = new int[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            keyColumns[k] = column(order, keys[k]);
+            if (keyColumns[k] < 0) {
+                throw new ImportException("illegal import file: no " + keys[k]);
+            }
+            suffixes.add(new HashMap<>());
+        }
+        failureColumn = column(order, CardProperty.FAILURE);
+        conflicts = new Card[keys.length];
+        row = new String[order.length];
+    }
+
+    /**
+     * merge every card of {@code source} into {@code target}
+     * @return the counts of the merge
+     * @throws ImportException if a card has an illegal value
+     */
+    static MergeReport merge(Cards source, Cards target, MergePolicy policy)
+            throws ImportException {
+        CardProperty[] order = CardProperty.values();
+        CardMerger merger = new CardMerger(target, policy, order);
+        target.ensureCapacity(target.getSize() + source.getSize());
+        String[] values = new String[BATCH_CARDS * order.length];
+        int count = 0;
+        for (Card card : source) {
+            for (int j = 0; j < order.length; j++) {
+                values[count * order.length + j] = card.getProperty(order[j]);
+            }
+            if (++count == BATCH_CARDS) {
+                merger.merge(values, count);
+                count = 0;
+            }
+        }
+        merger.merge(values, count);
+        return merger.report();
+    }
+
+    /**
+     * merge a batch of cards
+     * @param values {@code count * order.length} values, card after card; renamed values are replaced
+     * @param count the number of cards
+     * @throws IllegalArgumentException if a card has an illegal value
+     */
+    void merge(String[] values, int count) {
+        int width = order.length;
+        for (int i = 0; i < count; i++) {
+            int base = i * width;
+            boolean conflict = false;
+            for (int k = 0; k < keys.length; k++) {
+                conflicts[k] = target.findCard(keys[k], values[base + keyColumns[k]]);
+                conflict |= conflicts[k] != null;
+            }
+            if (!conflict) {
+                if (insert(values, base)) {
+                    report.merged++;
+                } else {
+                    report.skipped++;
+                }
+                continue;
+            }
+            switch (policy) {
+                case KEEP_HIGHER_FAILURE:
+                    if (!failsMore(values, base)) {
+                        report.skipped++;
+                        break;
+                    }
+                    overwrite(values, base);
+                    break;
+                case OVERWRITE:
+                    overwrite(values, base);
+                    break;
+                case RENAME:
+                    for (int k = 0; k < keys.length; k++) {
+                        if (conflicts[k] != null) {
+                            values[base + keyColumns[k]] = freeValue(k, values[base + keyColumns[k]]);
+                        }
+                    }
+                    if (insert(values, base)) {
+                        report.renamed++;
+                    } else {
+                        report.skipped++;
+                    }
+                    break;
+                default:
+                    report.skipped++;
+            }
+        }
+    }
+
+    MergeReport report() {
+        return report;
+    }
+
+    private void overwrite(String[] values, int base) {
+        for (int k = 0; k < keys.length; k++) {
+            if (conflicts[k] != null) {
+                try {
+                    // the same card may hold several of the keys, or be removed by another session
+                    target.remove(keys[k], values[base + keyColumns[k]]);
+                } catch (NoSuchElementException e) {
+                    // already gone
+                }
+            }
+        }
+        if (insert(values, base)) {
+            report.overwritten++;
+        } else {
+            report.skipped++;
+        }
+    }
+
+    /**
+     * @return whether the card has more failures than every card it conflicts with
+     */
+    private boolean failsMore(String[] values, int base) {
+        String value = failureColumn < 0 ? "" : values[base + failureColumn];
+        int failure = value.isEmpty() ? 0 : Integer.parseInt(value);
+        for (Card conflict : conflicts) {
+            if (conflict != null && target.getFailure(conflict) >= failure) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the card was added; it is not if another session took one of its keys meanwhile
+     */
+    private boolean insert(String[] values, int base) {
+        System.arraycopy(values, base, row, 0, row.length);
+        return target.addNewLines(order, row, 1) == 1;
+    }
+
+    /**
+     * @return {@code value} numbered with the first free number from 2 on, e.g. "cat (2)"
+     */
+    private String freeValue(int k, String value) {
+        HashMap<String, Integer> next = suffixes.get(k);
+        int n = next.getOrDefault(value, 2);
+        String candidate = value + " (" + n + ")";
+        while (target.findCard(keys[k], candidate) != null) {
+            n++;
+            candidate = value + " (" + n + ")";
+        }
+        next.put(value, n + 1);
+        return candidate;
+    }
+
+    private static int column(CardProperty[] order, CardProperty property) {
+        for (int j = 0; j < order.length; j++) {
+            if (order[j] == property) {
+                return j;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,7 +1,41 @@
 package flashcards;
 
 public enum CardProperty {
-    TERM,
-    DEFINITION,
-    FAILURE
+    TERM(false),
+    DEFINITION(false),
+    FAILURE(true),
+    /**
+     * days until the next review after the last correct answer, 0 for a card not learned yet
+     */
+    INTERVAL(true),
+    /**
+     * SM-2 ease factor in thousandths, 0 for the default
+     */
+    EASE(true),
+    /**
+     * when the card is due, in minutes since the epoch; 0 for a new card
+     */
+    DUE(true);
+
+    private final boolean numeric;
+
+    CardProperty(boolean numeric) {
+        this.numeric = numeric;
+    }
+
+    /**
+     * numeric properties are stored as {@code int} and written as text only on export;
+     * zero is written as the empty string
+     * @return whether this property holds a non-negative integer
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * @return whether this property is scheduling state, which only scheduled sampling sets
+     */
+    public boolean isScheduling() {
+        return this == INTERVAL || this == EASE || this == DUE;
+    }
 }
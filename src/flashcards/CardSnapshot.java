@@ -0,0 +1,238 @@
+package flashcards;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Versioned binary snapshot of a card collection, loaded through memory mapping.
+ * <pre>
+ * header:  magic "FCSN", int version, int size,
+ *          keys, text properties, numeric properties
+ *          (each as a byte count followed by length-prefixed names)
+ * columns: for each numeric property, {@code size} ints
+ * strings: for each card, for each text property, an int length followed by UTF-8 bytes
+ * </pre>
+ * All integers are big-endian.
+ */
+class CardSnapshot {
+
+    static final byte[] MAGIC = {'F', 'C', 'S', 'N'};
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * write a collection to a snapshot file
+     * @return the number of cards written
+     */
+    static int write(CardCollection cardCollection, Path path) throws IOException {
+        List<CardProperty> text = new ArrayList<>();
+        List<CardProperty> numeric = new ArrayList<>();
+        for (CardProperty p : cardCollection.exportedProperties()) {
+            (p.isNumeric() ? numeric : text).add(p);
+        }
+        int size = cardCollection.getSize();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = new Writer(channel);
+            writer.putBytes(MAGIC);
+            writer.putInt(VERSION);
+            writer.putInt(size);
+            writer.putNames(List.of(cardCollection.getKeys()));
+            writer.putNames(text);
+            writer.putNames(numeric);
+            for (CardProperty p : numeric) {
+                for (int slot = 0; slot < size; slot++) {
+                    writer.putInt(cardCollection.cardAt(slot).getNumber(p));
+                }
+            }
+            writer.flush();
+
+            // the string table is encoded in parallel for large collections
+            ParallelEncoder.write(channel, size, (from, to) -> {
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+                for (int slot = from; slot < to; slot++) {
+                    Card card = cardCollection.cardAt(slot);
+                    for (CardProperty p : text) {
+                        byte[] bytes = card.getProperty(p).getBytes(StandardCharsets.UTF_8);
+                        chunk.write(bytes.length >>> 24);
+                        chunk.write(bytes.length >>> 16);
+                        chunk.write(bytes.length >>> 8);
+                        chunk.write(bytes.length);
+                        chunk.write(bytes, 0, bytes.length);
+                    }
+                }
+                return chunk.toByteArray();
+            });
+        }
+        return size;
+    }
+
+    /**
+     * load a collection from a snapshot file
+     * @throws IOException if the file cannot be opened
+     * @throws ImportException if the file is not a legal snapshot
+     */
+    static CardCollection read(Path path) throws IOException, ImportException {
+        return read(path, StorageMode.HEAP);
+    }
+
+    /**
+     * load a collection from a snapshot file into a collection with the given storage
+     * @throws IOException if the file cannot be opened
+     * @throws ImportException if the file is not a legal snapshot
+     */
+    static CardCollection read(Path path, StorageMode storage) throws IOException, ImportException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            try {
+                MappedReader header = new MappedReader(channel, 0, fileSize);
+                for (byte b : MAGIC) {
+                    if (header.getByte() != b) {
+                        throw new ImportException("illegal snapshot: wrong header");
+                    }
+                }
+                if (header.getInt() != VERSION) {
+                    throw new ImportException("illegal snapshot: unsupported version");
+                }
+                int size = header.getInt();
+                if (size < 0) {
+                    throw new ImportException("illegal snapshot: wrong size");
+                }
+                CardProperty[] keys = readNames(header);
+                CardProperty[] text = readNames(header);
+                CardProperty[] numeric = readNames(header);
+                // snapshots written before a property existed leave it empty
+                if (keys.length == 0 || !Arrays.asList(text).containsAll(Arrays.asList(keys))
+                        || Arrays.stream(text).anyMatch(CardProperty::isNumeric)
+                        || !Arrays.stream(numeric).allMatch(CardProperty::isNumeric)) {
+                    throw new ImportException("illegal snapshot: wrong properties");
+                }
+
+                // one reader per numeric column, and one for the string table behind them
+                long position = header.position();
+                MappedReader[] columns = new MappedReader[numeric.length];
+                for (int i = 0; i < numeric.length; i++) {
+                    columns[i] = new MappedReader(channel, position, fileSize);
+                    position += 4L * size;
+                }
+                if (position > fileSize) {
+                    throw new ImportException("illegal snapshot: truncated");
+                }
+                MappedReader strings = new MappedReader(channel, position, fileSize);
+
+                CardCollection cardCollection = new CardCollection(keys, size, storage);
+                for (int i = 0; i < size; i++) {
+                    Card card = cardCollection.newSlot();
+                    for (CardProperty p : text) {
+                        card.store.set(card.slot, p, strings.getString());
+                    }
+                    for (int j = 0; j < numeric.length; j++) {
+                        int value = columns[j].getInt();
+                        if (value < 0) {
+                            throw new ImportException("illegal snapshot: negative " + numeric[j]);
+                        }
+                        card.store.setNumber(card.slot, numeric[j], value);
+                    }
+                    cardCollection.commitSlot(card);
+                }
+                return cardCollection;
+            } catch (IOException | IllegalArgumentException e) {
+                throw new ImportException("illegal snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return whether the file starts with the snapshot magic
+     */
+    static boolean isSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the magic is complete or the file ends
+            }
+            return !buffer.hasRemaining() && ByteBuffer.wrap(MAGIC).equals(buffer.flip());
+        }
+    }
+
+    private static CardProperty[] readNames(MappedReader reader) throws IOException, ImportException {
+        int count = reader.getByte();
+        LinkedHashSet<CardProperty> properties = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            String name = reader.getString();
+            try {
+                if (!properties.add(CardProperty.valueOf(name))) {
+                    throw new ImportException("illegal snapshot: duplicated property " + name);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ImportException("illegal snapshot: unknown property " + name);
+            }
+        }
+        return properties.toArray(new CardProperty[0]);
+    }
+
+    /**
+     * buffered big-endian writes to a channel
+     */
+    private static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            if (buffer.remaining() < bytes.length) {
+                flush();
+                if (bytes.length > buffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(bytes));
+                    return;
+                }
+            }
+            buffer.put(bytes);
+        }
+
+        void putNames(List<CardProperty> properties) throws IOException {
+            if (buffer.remaining() < 1) {
+                flush();
+            }
+            buffer.put((byte) properties.size());
+            for (CardProperty p : properties) {
+                byte[] name = p.name().getBytes(StandardCharsets.UTF_8);
+                putInt(name.length);
+                putBytes(name);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package flashcards;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Column-oriented storage of card properties.
+ * Text properties live in {@code String} columns, or as addresses into a {@link TextArena}
+ * for an off-heap store, and numeric properties in {@code int} columns, or direct buffers for
+ * an off-heap store, all indexed by slot; a {@link Card} is a handle to one slot of a store,
+ * which an off-heap store makes when it is first asked for.
+ * A snapshot shares the columns of a store; the store copies a column before its first
+ * write to a slot the snapshot can see, so taking a snapshot is O(1).
+ */
+class CardStore {
+
+    private static final CardProperty[] PROPERTIES = CardProperty.values();
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * the arena is compacted when it holds at least this many bytes of garbage, and more garbage than text
+     */
+    private static final long MIN_GARBAGE = 1 << 20;
+
+    /**
+     * the collection this store belongs to, null for the store of a detached card
+     */
+    final Cards owner;
+
+    private final String[][] text = new String[PROPERTIES.length][];
+    /**
+     * the addresses of the text in {@code arena}, for an off-heap store
+     */
+    private final long[][] addresses = new long[PROPERTIES.length][];
+    private TextArena arena;
+    private final int[][] numbers = new int[PROPERTIES.length][];
+    /**
+     * the numeric columns of an off-heap store, in place of {@code numbers}
+     */
+    private final IntBuffer[] directNumbers = new IntBuffer[PROPERTIES.length];
+
+    /**
+     * the statistics epoch in which each failure count was written, in {@code directEpochs}
+     * for an off-heap store
+     */
+    private int[] failureEpochs;
+    private IntBuffer directEpochs;
+    /**
+     * the card of each slot; null for a snapshot, which makes a new card at each use, and
+     * until the first card of an off-heap store is asked for, which makes them one at a time
+     */
+    private Card[] handles;
+    private final boolean lazyHandles;
+    private int capacity;
+    private int size;
+    private int epoch;
+    /**
+     * the statistics epoch shared by the single-card stores of a concurrent collection, null if
+     * the store keeps its own
+     */
+    private final AtomicInteger sharedEpoch;
+
+    /**
+     * slots below this may be seen by a snapshot; a column not {@code owned} since the last
+     * snapshot is copied before a write below it
+     */
+    private int sharedSize;
+    private final boolean[] owned = new boolean[PROPERTIES.length];
+    private boolean ownedEpochs;
+    /**
+     * whether this store is a snapshot, which refuses writes
+     */
+    private final boolean readOnly;
+
+    CardStore(Cards owner, int capacity) {
+        this(owner, capacity, StorageMode.HEAP);
+    }
+
+    CardStore(Cards owner, int capacity, StorageMode storage) {
+        this(owner, capacity, storage, null);
+    }
+
+    /**
+     * a single-card store on the heap whose failure counts count in the epoch {@code epoch}
+     * @param owner the collection the store belongs to
+     * @param epoch the statistics epoch of the collection
+     */
+    CardStore(Cards owner, AtomicInteger epoch) {
+        this(owner, 1, StorageMode.HEAP, epoch);
+    }
+
+    private CardStore(Cards owner, int capacity, StorageMode storage, AtomicInteger sharedEpoch) {
+        this.owner = owner;
+        this.readOnly = false;
+        this.sharedEpoch = sharedEpoch;
+        capacity = Math.max(capacity, 1);
+        this.capacity = capacity;
+        if (storage == StorageMode.OFF_HEAP) {
+            // guess a few dozen bytes per card for the first page
+            arena = new TextArena(32L * capacity);
+        }
+        for (CardProperty p : PROPERTIES) {
+            if (p.isNumeric() && arena != null) {
+                directNumbers[p.ordinal()] = allocateInts(capacity);
+            } else if (p.isNumeric()) {
+                numbers[p.ordinal()] = new int[capacity];
+            } else if (arena != null) {
+                addresses[p.ordinal()] = new long[capacity];
+            } else {
+                text[p.ordinal()] = new String[capacity];
+            }
+        }
+        if (arena != null) {
+            directEpochs = allocateInts(capacity);
+        } else {
+            failureEpochs = new int[capacity];
+            handles = new Card[capacity];
+        }
+        lazyHandles = arena != null;
+    }
+
+    /**
+     * a snapshot of {@code source}, sharing its columns
+     */
+    private CardStore(Cards owner, CardStore source) {
+        this.owner = owner;
+        this.readOnly = true;
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            text[i] = source.text[i];
+            addresses[i] = source.addresses[i];
+            numbers[i] = source.numbers[i];
+            directNumbers[i] = source.directNumbers[i];
+        }
+        arena = source.arena == null ? null : source.arena.view();
+        failureEpochs = source.failureEpochs;
+        directEpochs = source.directEpochs;
+        lazyHandles = false;
+        capacity = source.capacity;
+        size = source.size;
+        epoch = source.epoch;
+        sharedEpoch = null;
+        // every write would copy a column, which is refused
+        sharedSize = Integer.MAX_VALUE;
+    }
+
+    /**
+     * take a read-only snapshot of the cards in this store, in O(1); its handles are made on
+     * demand and are not the handles of this store
+     * @param owner the collection the snapshot belongs to
+     */
+    CardStore snapshot(Cards owner) {
+        CardStore snapshot = new CardStore(owner, this);
+        sharedSize = Math.max(sharedSize, size);
+        Arrays.fill(owned, false);
+        ownedEpochs = false;
+        return snapshot;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the card of {@code slot}, made now if the store makes its cards on first use
+     */
+    Card handle(int slot) {
+        if (handles == null) {
+            if (!lazyHandles) {
+                return new Card(this, slot);
+            }
+            handles = new Card[capacity];
+        }
+        Card handle = handles[slot];
+        if (handle == null) {
+            handle = new Card(this, slot);
+            handles[slot] = handle;
+        }
+        return handle;
+    }
+
+    /**
+     * bind {@code handle} to a new slot with empty properties
+     * @param handle the card to bind, or null for an off-heap store to make it on first use
+     * @return the new slot
+     */
+    int append(Card handle) {
+        if (size == capacity) {
+            grow(size * 2);
+        }
+        int slot = size++;
+        for (CardProperty p : PROPERTIES) {
+            if (p.isNumeric() && arena != null) {
+                directNumberColumn(p.ordinal(), slot).put(slot, 0);
+            } else if (p.isNumeric()) {
+                numberColumn(p.ordinal(), slot)[slot] = 0;
+            } else if (arena != null) {
+                addressColumn(p.ordinal(), slot)[slot] = TextArena.EMPTY;
+            } else {
+                textColumn(p.ordinal(), slot)[slot] = "";
+            }
+        }
+        setEpoch(slot);
+        if (handles != null) {
+            handles[slot] = handle;
+        } else if (handle != null) {
+            handles = new Card[capacity];
+            handles[slot] = handle;
+        }
+        if (handle != null) {
+            handle.store = this;
+            handle.slot = slot;
+        }
+        return slot;
+    }
+
+    /**
+     * copy every property of {@code from[fromSlot]} into {@code slot}
+     */
+    void copy(int slot, CardStore from, int fromSlot) {
+        for (CardProperty p : PROPERTIES) {
+            if (p.isNumeric()) {
+                setNumber(slot, p, from.getNumber(fromSlot, p));
+            } else if (arena == null && from.arena == null) {
+                textColumn(p.ordinal(), slot)[slot] = from.text[p.ordinal()][fromSlot];
+            } else {
+                setText(slot, p, from.get(fromSlot, p));
+            }
+        }
+    }
+
+    /**
+     * move the last slot into {@code slot}, overwriting it, and shrink by one
+     */
+    void removeSwap(int slot) {
+        int last = size - 1;
+        for (CardProperty p : PROPERTIES) {
+            int i = p.ordinal();
+            if (p.isNumeric() && arena != null) {
+                IntBuffer column = directNumberColumn(i, slot);
+                column.put(slot, column.get(last));
+            } else if (p.isNumeric()) {
+                int[] column = numberColumn(i, slot);
+                column[slot] = column[last];
+            } else if (arena != null) {
+                long[] column = addressColumn(i, slot);
+                arena.free(column[slot]);
+                column[slot] = column[last];
+                column[last] = TextArena.EMPTY;
+            } else {
+                String[] column = textColumn(i, slot);
+                column[slot] = column[last];
+                column[last] = null;
+            }
+        }
+        if (arena != null) {
+            IntBuffer epochs = directEpochColumn(slot);
+            epochs.put(slot, epochs.get(last));
+        } else {
+            int[] epochs = epochColumn(slot);
+            epochs[slot] = epochs[last];
+        }
+        if (handles != null) {
+            if (slot != last) {
+                handles[slot] = handles[last];
+                if (handles[slot] != null) {
+                    handles[slot].slot = slot;
+                }
+            }
+            handles[last] = null;
+        }
+        size--;
+        compactIfSparse();
+    }
+
+    String get(int slot, CardProperty p) {
+        if (p.isNumeric()) {
+            int value = getNumber(slot, p);
+            return value == 0 ? "" : Integer.toString(value);
+        }
+        if (arena != null) {
+            return arena.get(addresses[p.ordinal()][slot]);
+        }
+        return text[p.ordinal()][slot];
+    }
+
+    void set(int slot, CardProperty p, String value) {
+        if (p.isNumeric()) {
+            setNumber(slot, p, parseNumber(value));
+        } else {
+            // return character is illegal.
+            setText(slot, p, value.replace('\n', ' '));
+        }
+    }
+
+    /**
+     * @return the number written as {@code value}, 0 for the empty string
+     * @throws NumberFormatException if {@code value} is not a non-negative integer
+     */
+    static int parseNumber(String value) {
+        int number = value.isEmpty() ? 0 : Integer.parseInt(value);
+        if (number < 0) {
+            throw new NumberFormatException("negative number: " + value);
+        }
+        return number;
+    }
+
+    private void setText(int slot, CardProperty p, String value) {
+        if (arena == null) {
+            textColumn(p.ordinal(), slot)[slot] = value;
+            return;
+        }
+        long[] column = addressColumn(p.ordinal(), slot);
+        arena.free(column[slot]);
+        column[slot] = arena.put(value);
+        compactIfSparse();
+    }
+
+    /**
+     * compare a text property with a string without decoding the property
+     * @param utf8 the UTF-8 encoding of the string
+     */
+    boolean textEquals(int slot, CardProperty p, byte[] utf8) {
+        if (arena != null) {
+            return arena.matches(addresses[p.ordinal()][slot], utf8);
+        }
+        return text[p.ordinal()][slot].equals(new String(utf8, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the bytes this store holds outside the heap
+     */
+    long offHeapBytes() {
+        if (arena == null) {
+            return 0;
+        }
+        long bytes = arena.capacity() + (long) Integer.BYTES * directEpochs.capacity();
+        for (IntBuffer column : directNumbers) {
+            if (column != null) {
+                bytes += (long) Integer.BYTES * column.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * copy the live text to a new arena once most of the old one is garbage; slots do not change
+     */
+    private void compactIfSparse() {
+        if (arena == null || arena.garbageBytes() < MIN_GARBAGE || arena.garbageBytes() < arena.liveBytes()) {
+            return;
+        }
+        TextArena compacted = new TextArena(arena.liveBytes());
+        for (CardProperty p : PROPERTIES) {
+            if (addresses[p.ordinal()] == null) {
+                continue;
+            }
+            long[] column = addressColumn(p.ordinal(), 0);
+            for (int slot = 0; slot < size; slot++) {
+                column[slot] = compacted.copy(arena, column[slot]);
+            }
+        }
+        arena = compacted;
+    }
+
+    int getNumber(int slot, CardProperty p) {
+        if (arena != null) {
+            if (p == CardProperty.FAILURE && directEpochs.get(slot) != currentEpoch()) {
+                return 0;
+            }
+            return directNumbers[p.ordinal()].get(slot);
+        }
+        if (p == CardProperty.FAILURE && failureEpochs[slot] != currentEpoch()) {
+            return 0;
+        }
+        return numbers[p.ordinal()][slot];
+    }
+
+    void setNumber(int slot, CardProperty p, int value) {
+        if (arena != null) {
+            directNumberColumn(p.ordinal(), slot).put(slot, value);
+        } else {
+            numberColumn(p.ordinal(), slot)[slot] = value;
+        }
+        if (p == CardProperty.FAILURE) {
+            setEpoch(slot);
+        }
+    }
+
+    /**
+     * record that the failure count of {@code slot} was written in the current epoch
+     */
+    private void setEpoch(int slot) {
+        if (arena != null) {
+            directEpochColumn(slot).put(slot, currentEpoch());
+        } else {
+            epochColumn(slot)[slot] = currentEpoch();
+        }
+    }
+
+    /**
+     * atomically add {@code delta} to a numeric property, for stores shared between threads,
+     * which never take snapshots; the failure epoch of the slot is not updated
+     * @return the new value
+     */
+    int addNumberAtomic(int slot, CardProperty p, int delta) {
+        return (int) INTS.getAndAdd(numbers[p.ordinal()], slot, delta) + delta;
+    }
+
+    /**
+     * atomically set a numeric property, for stores shared between threads, which never take snapshots
+     * @return the previous value
+     */
+    int setNumberAtomic(int slot, CardProperty p, int value) {
+        return (int) INTS.getAndSet(numbers[p.ordinal()], slot, value);
+    }
+
+    /**
+     * the failure count of a slot in the statistics epoch {@code epoch}, for stores shared between threads
+     */
+    int failure(int slot, int epoch) {
+        if ((int) INTS.getAcquire(failureEpochs, slot) != epoch) {
+            return 0;
+        }
+        return (int) INTS.getVolatile(numbers[CardProperty.FAILURE.ordinal()], slot);
+    }
+
+    /**
+     * atomically add one to the failure count of a slot in the statistics epoch {@code epoch}, for
+     * stores shared between threads whose counts are changed by one thread at a time; a count
+     * of an earlier epoch starts over from zero
+     * @return the new failure count
+     */
+    int addFailureAtomic(int slot, int epoch) {
+        if ((int) INTS.getAcquire(failureEpochs, slot) == epoch) {
+            return addNumberAtomic(slot, CardProperty.FAILURE, 1);
+        }
+        setNumberAtomic(slot, CardProperty.FAILURE, 1);
+        INTS.setRelease(failureEpochs, slot, epoch);
+        return 1;
+    }
+
+    /**
+     * atomically set the failure count of a slot in the statistics epoch {@code epoch}, for
+     * stores shared between threads whose counts are changed by one thread at a time
+     * @return the previous failure count in that epoch
+     */
+    int setFailureAtomic(int slot, int failure, int epoch) {
+        int old = failure(slot, epoch);
+        setNumberAtomic(slot, CardProperty.FAILURE, failure);
+        INTS.setRelease(failureEpochs, slot, epoch);
+        return old;
+    }
+
+    private int currentEpoch() {
+        return sharedEpoch == null ? epoch : sharedEpoch.get();
+    }
+
+    /**
+     * reset every failure count to zero, in O(1)
+     */
+    void nextEpoch() {
+        epoch++;
+    }
+
+    /**
+     * make room for at least {@code capacity} cards, at least doubling the capacity when growing
+     * so that many small reservations stay amortized O(1)
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity > this.capacity) {
+            grow(Math.max(capacity, this.capacity * 2));
+        }
+    }
+
+    private void grow(int capacity) {
+        for (CardProperty p : PROPERTIES) {
+            if (p.isNumeric() && arena != null) {
+                directNumbers[p.ordinal()] = copyInts(directNumbers[p.ordinal()], capacity);
+            } else if (p.isNumeric()) {
+                numbers[p.ordinal()] = Arrays.copyOf(numbers[p.ordinal()], capacity);
+            } else if (arena != null) {
+                addresses[p.ordinal()] = Arrays.copyOf(addresses[p.ordinal()], capacity);
+            } else {
+                text[p.ordinal()] = Arrays.copyOf(text[p.ordinal()], capacity);
+            }
+        }
+        if (arena != null) {
+            directEpochs = copyInts(directEpochs, capacity);
+        } else {
+            failureEpochs = Arrays.copyOf(failureEpochs, capacity);
+        }
+        if (handles != null) {
+            handles = Arrays.copyOf(handles, capacity);
+        }
+        this.capacity = capacity;
+        // every column is a new array now, seen by no snapshot
+        sharedSize = 0;
+    }
+
+    private static IntBuffer allocateInts(int capacity) {
+        return ByteBuffer.allocateDirect(Math.multiplyExact(capacity, Integer.BYTES))
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * @return a new direct buffer of {@code capacity} ints that starts with those of {@code column}
+     */
+    private static IntBuffer copyInts(IntBuffer column, int capacity) {
+        IntBuffer copy = allocateInts(capacity);
+        copy.put(0, column, 0, Math.min(column.capacity(), capacity));
+        return copy;
+    }
+
+    // the columns to write {@code slot} to, copied first if a snapshot may see the slot
+
+    private String[] textColumn(int i, int slot) {
+        if (slot < sharedSize && !owned[i]) {
+            checkWritable();
+            text[i] = text[i].clone();
+            owned[i] = true;
+        }
+        return text[i];
+    }
+
+    private long[] addressColumn(int i, int slot) {
+        if (slot < sharedSize && !owned[i]) {
+            checkWritable();
+            addresses[i] = addresses[i].clone();
+            owned[i] = true;
+        }
+        return addresses[i];
+    }
+
+    private int[] numberColumn(int i, int slot) {
+        if (slot < sharedSize && !owned[i]) {
+            checkWritable();
+            numbers[i] = numbers[i].clone();
+            owned[i] = true;
+        }
+        return numbers[i];
+    }
+
+    private IntBuffer directNumberColumn(int i, int slot) {
+        if (slot < sharedSize && !owned[i]) {
+            checkWritable();
+            directNumbers[i] = copyInts(directNumbers[i], capacity);
+            owned[i] = true;
+        }
+        return directNumbers[i];
+    }
+
+    private IntBuffer directEpochColumn(int slot) {
+        if (slot < sharedSize && !ownedEpochs) {
+            checkWritable();
+            directEpochs = copyInts(directEpochs, capacity);
+            ownedEpochs = true;
+        }
+        return directEpochs;
+    }
+
+    private int[] epochColumn(int slot) {
+        if (slot < sharedSize && !ownedEpochs) {
+            checkWritable();
+            failureEpochs = failureEpochs.clone();
+            ownedEpochs = true;
+        }
+        return failureEpochs;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("a snapshot cannot be changed");
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package flashcards;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A collection of cards, found by any of its keys.
+ * <p>
+ * A {@link CardCollection} keeps every card in memory for a single thread, a
+ * {@link ConcurrentCardCollection} can be shared between threads, and a {@link PagedCardCollection}
+ * leaves the cards of a deck in its file.
+ */
+public interface Cards extends Iterable<Card> {
+
+    /**
+     * Add a new card to the collection
+     * @param card the new card to be added
+     * @throws IllegalArgumentException when the card has duplicated key in the collection
+     */
+    void add(Card card) throws IllegalArgumentException;
+
+    /**
+     * Add a batch of cards given as raw property values, skipping the cards whose keys are taken.
+     * @param order the property of each value of a card
+     * @param values {@code count * order.length} values, card after card
+     * @param count the number of cards
+     * @return the number of cards added
+     * @throws IllegalArgumentException if a card has an illegal value
+     */
+    int addNewLines(CardProperty[] order, String[] values, int count);
+
+    /**
+     * make room for at least {@code capacity} cards
+     */
+    void ensureCapacity(int capacity);
+
+    /**
+     * @return a view of this collection that does not change while it is read, for exporters
+     */
+    CardCollection stableView();
+
+    /**
+     * take a point-in-time copy of the cards, which another thread may read while this
+     * collection goes on changing
+     * @return a copy that can be exported but finds no card by key and cannot be changed
+     */
+    Cards snapshot();
+
+    /**
+     * @return where the text of the cards is kept
+     */
+    StorageMode getStorage();
+
+    /**
+     * @return the bytes of card text held outside the heap
+     */
+    default long offHeapBytes() {
+        return 0;
+    }
+
+    /**
+     * @return the keys of this collection, main key first
+     */
+    CardProperty[] getKeys();
+
+    /**
+     * removes a card
+     * @param key the key used to find the card
+     * @param value the value of this key
+     * @throws NoSuchElementException if the card does not exist
+     * @throws IllegalArgumentException if {@code key} is not in KEY.
+     */
+    void remove(CardProperty key, String value);
+
+    /**
+     * Check if the collection contains a certain card by looking up its property
+     * @param property the property to check
+     * @param value the value of the property
+     * @return whether a card with that property value is in the collection
+     */
+    boolean contains(CardProperty property, String value);
+
+    /**
+     * find every card with a given property value
+     * @param property the property to check
+     * @param value the value of the property
+     * @return the matching cards, empty if there is none
+     */
+    List<Card> findCards(CardProperty property, String value);
+
+    /**
+     * returns the cards failed at least {@code k} times, by descending failure count
+     * @param k the minimum failure count
+     * @return the matching cards; every card if {@code k <= 0}
+     */
+    List<Card> failuresAtLeast(int k);
+
+    /**
+     * drop the secondary index of a property, if it has been built; it is rebuilt on the next query
+     * @param property a non-key property
+     */
+    void dropIndex(CardProperty property);
+
+    /**
+     * drop every secondary index
+     */
+    void dropIndexes();
+
+    /**
+     * returns the index of a property's values as a learner would type them, building it on first use
+     * @param property the property to index
+     * @return the index, kept up to date with this collection
+     */
+    AnswerIndex answerIndex(CardProperty property);
+
+    /**
+     * returns a copy of a card
+     * @param key the key used to find the card
+     * @param value the value of the card
+     * @return a copy of this card
+     * @throws NoSuchElementException if the card does not exist
+     * @throws IllegalArgumentException if {@code key} is not in KEY.
+     */
+    Card getCard(CardProperty key, String value);
+
+    /**
+     * find a card of this collection without copying it; unlike {@code getCard}
+     * a miss is not an exception
+     * @param key the key used to find the card
+     * @param value the value of the key
+     * @return the card, or null if there is no such card
+     * @throws IllegalArgumentException if {@code key} is not in KEY.
+     */
+    Card findCard(CardProperty key, String value);
+
+    /**
+     * returns a random card
+     * @return Card chosen randomly
+     * @throws NoSuchElementException if the collection is empty
+     */
+    Card randomCard();
+
+    /**
+     * returns a card drawn in proportion to its failure count plus one, so that
+     * cards that have never failed can still be drawn
+     * @return Card chosen randomly by weight
+     * @throws NoSuchElementException if the collection is empty
+     */
+    Card weightedCard();
+
+    /**
+     * returns the card due first
+     * @return the card with the earliest due time; new cards are due at once
+     * @throws NoSuchElementException if the collection is empty
+     */
+    Card dueCard();
+
+    /**
+     * returns a random card using the given sampling mode
+     * @param mode uniform, failure-weighted or scheduled sampling
+     * @return Card chosen randomly
+     * @throws NoSuchElementException if the collection is empty
+     */
+    default Card sample(SamplingMode mode) {
+        if (mode == SamplingMode.WEIGHTED) {
+            return weightedCard();
+        }
+        if (mode == SamplingMode.SCHEDULED) {
+            return dueCard();
+        }
+        return randomCard();
+    }
+
+    /**
+     * record an answer to a card of this collection and schedule its next review
+     * @param card a card in this collection
+     * @param correct whether the answer was correct
+     * @throws IllegalArgumentException if the card is not in this collection
+     */
+    void review(Card card, boolean correct);
+
+    /**
+     * get the failure count of a card
+     * @param card a card
+     * @return the number of times this card was answered wrong
+     */
+    default int getFailure(Card card) {
+        return card.getNumber(CardProperty.FAILURE);
+    }
+
+    /**
+     * record a wrong answer to a card of this collection
+     * @param card a card in this collection
+     * @return the new failure count of the card
+     * @throws IllegalArgumentException if the card is not in this collection
+     */
+    int fail(Card card);
+
+    /**
+     * update a property of a card of this collection, keeping the key maps and indexes consistent
+     * @param card a card in this collection
+     * @param property the property to update
+     * @param value the new value
+     * @throws IllegalArgumentException if the card is not in this collection,
+     *                                  or if {@code value} would duplicate a key
+     */
+    void setProperty(Card card, CardProperty property, String value);
+
+    /**
+     * reset the failure count of every card
+     */
+    void resetStats();
+
+    /**
+     * register a listener that is notified of every later mutation
+     * @param listener the listener to add
+     */
+    void addListener(CollectionListener listener);
+
+    /**
+     * @param listener the listener to remove
+     */
+    void removeListener(CollectionListener listener);
+
+    /**
+     * @return the highest failure count in the collection, 0 if no card has failed
+     */
+    int maxFailure();
+
+    /**
+     * returns the cards sharing the highest failure count
+     * @return the hardest cards, empty if no card has failed
+     */
+    List<Card> hardestCards();
+
+    /**
+     * returns up to {@code n} cards with at least one failure, by descending failure count
+     * @param n the maximum number of cards to return
+     * @return the hardest cards, hardest first
+     */
+    List<Card> hardestCards(int n);
+
+    /**
+     * write card collection to file, compressed if the path ends with {@code .gz}
+     * @param path file path
+     * @throws IOException if the path is invalid
+     */
+    default int exportCards(String path) throws IOException {
+        return exportCards(path, path.endsWith(Gzip.EXTENSION));
+    }
+
+    /**
+     * write card collection to file
+     * @param path file path
+     * @param compressed whether to gzip the file, chunk by chunk
+     * @throws IOException if the path is invalid
+     */
+    int exportCards(String path, boolean compressed) throws IOException;
+
+    /**
+     * merge the cards of a file into this collection instead of replacing it
+     * @param path file path
+     * @param policy what to do with a card whose term or definition is taken
+     * @return the counts of the merge
+     * @throws IOException if file does not exist
+     * @throws ImportException if import file is illegal; the cards before the error stay merged
+     */
+    default MergeReport mergeCards(String path, MergePolicy policy) throws IOException, ImportException {
+        boolean parallel = new File(path).length() >= CardImporter.PARALLEL_THRESHOLD;
+        return new CardImporter(parallel).merge(Paths.get(path), this, policy);
+    }
+
+    /**
+     * get the collection size
+     * @return the number of cards
+     */
+    int getSize();
+
+    /**
+     * @return a sequential stream of the cards
+     */
+    default Stream<Card> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel stream of the cards; the collection must not be modified meanwhile
+     */
+    default Stream<Card> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+}
@@ -0,0 +1,38 @@
+package flashcards;
+
+/**
+ * Receives every mutation of a {@link CardCollection}, after it has been applied.
+ */
+public interface CollectionListener {
+
+    /**
+     * @param card the card that has been added
+     */
+    void cardAdded(Card card);
+
+    /**
+     * @param card the card that has been removed; it is detached but keeps its values
+     */
+    void cardRemoved(Card card);
+
+    /**
+     * @param card the card whose property has changed
+     * @param property the property that has changed
+     * @param oldValue the value before the change
+     */
+    void propertyChanged(Card card, CardProperty property, String oldValue);
+
+    /**
+     * the failure count of every card has been reset
+     */
+    void statsReset();
+
+    /**
+     * collections skip the property changes a listener does not observe, and the work of reporting them
+     * @param property a property of the cards
+     * @return whether {@link #propertyChanged} should be called for changes of {@code property}
+     */
+    default boolean observes(CardProperty property) {
+        return true;
+    }
+}
@@ -0,0 +1,1144 @@
+package flashcards;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link Cards} that can be shared between threads.
+ * <p>
+ * Keys are kept in concurrent maps. A mutation locks the stripes of every key value it
+ * touches, in stripe order, so that uniqueness across all keys is checked and updated
+ * atomically while mutations of unrelated cards proceed in parallel.
+ * <p>
+ * A failure count changes under the monitor of its card alone, and moves the card between
+ * concurrent failure buckets, so {@code hardestCards} takes O(k) for the k cards it returns.
+ * The weights of {@code weightedCard} are kept in {@link FenwickTree}s, one for each of
+ * {@code PARTITIONS} partitions of the dense index, each under its own monitor: an answer
+ * updates one partition in O(log n), and a draw picks a partition by its total weight and
+ * then a card within it. Each partition also keeps a {@link DueQueue} of its cards once
+ * {@code dueCard} is first called, so that {@code dueCard} compares the heads of the partitions.
+ * {@code resetStats} starts a new statistics epoch in O(1); the counts of earlier epochs read
+ * as zero. Lookups by non-key property go through secondary indexes built on the first query
+ * by that property.
+ * {@code getSize} is linearizable; iteration and the indexed queries are weakly consistent,
+ * and may miss a card whose failure count is changing. The lookups of the cards that never
+ * failed scan the cards in O(n); from {@link CardCollection#PARALLEL_THRESHOLD} cards on, the
+ * scans run on the common fork-join pool.
+ * <p>
+ * Each card keeps its values in a single-slot store of its own, so that a card read by one
+ * thread is never moved by another, and is changed under the monitor of the card. A snapshot
+ * captures the dense index in O(1); until it has been copied, a card changed meanwhile leaves
+ * its old store to the snapshot and goes on in a copy, the way a {@link CardStore} copies a
+ * column that a snapshot shares.
+ */
+public class ConcurrentCardCollection implements Cards {
+
+    private static final int STRIPES = 64;
+    /**
+     * the number of partitions of the dense index; the card at position {@code p} is in
+     * partition {@code p % PARTITIONS}
+     */
+    private static final int PARTITIONS = 64;
+
+    private final CardProperty[] keys;
+    private final EnumMap<CardProperty, ConcurrentHashMap<String, Card>> keyMaps = new EnumMap<>(CardProperty.class);
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    /**
+     * shared by mutations, exclusive for operations that need every card to hold still
+     */
+    private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+
+    /**
+     * every card, densely packed for uniform sampling; {@code Card.position} is the index of a card
+     */
+    private final Object slotsLock = new Object();
+    private volatile Card[] dense;
+    private volatile int size;
+    /**
+     * the sampling weights of the cards, so that answers to different cards rarely share a monitor
+     */
+    private final Partition[] partitions = new Partition[PARTITIONS];
+
+    /**
+     * the statistics epoch shared by the stores of the cards
+     */
+    private final AtomicInteger epoch = new AtomicInteger();
+    private volatile Stats stats = new Stats(0);
+
+    /**
+     * whether the partitions keep due queues, from the first {@code dueCard} on
+     */
+    private volatile boolean dueIndexed;
+
+    /**
+     * taken by snapshots and resets, one at a time
+     */
+    private final Object snapshotLock = new Object();
+    /**
+     * the snapshot being copied, if any
+     */
+    private volatile Capture capture;
+
+    /**
+     * indexes of non-key properties, built on the first query by that property
+     */
+    private final ConcurrentHashMap<CardProperty, ConcurrentHashMap<String, Set<Card>>> secondary =
+            new ConcurrentHashMap<>();
+
+    private final CopyOnWriteArrayList<CollectionListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<CardProperty, AnswerIndex> answerIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * @param keys an array of {@code CardProperty} that serve as keys;
+     *                       the first key is used as the Main Key.
+     * @throws IllegalArgumentException if no keys are provided
+     */
+    public ConcurrentCardCollection(CardProperty[] keys) {
+        this(keys, 16);
+    }
+
+    /**
+     * @param keys an array of {@code CardProperty} that serve as keys;
+     *                       the first key is used as the Main Key.
+     * @param expectedSize the number of cards the collection is expected to hold
+     * @throws IllegalArgumentException if no keys are provided
+     */
+    public ConcurrentCardCollection(CardProperty[] keys, int expectedSize) {
+        if (keys == null || keys.length == 0) {
+            throw new IllegalArgumentException("Empty Key!");
+        }
+        this.keys = new LinkedHashSet<>(Arrays.asList(keys)).toArray(new CardProperty[0]);
+        for (CardProperty key : this.keys) {
+            keyMaps.put(key, new ConcurrentHashMap<>((int) (expectedSize / 0.75f) + 1));
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions[i] = new Partition();
+        }
+        dense = new Card[Math.max(expectedSize, 1)];
+    }
+
+    /**
+     * copy a collection, e.g. one just imported, into a collection that can be shared between threads
+     * @param source the collection to copy; its failure counts are kept
+     */
+    public ConcurrentCardCollection(Cards source) {
+        this(source.getKeys(), source.getSize());
+        for (Card card : source) {
+            // the cards of a paged collection belong to no store, and would be taken over
+            add(card.store.owner == null ? card.copyOf() : card);
+        }
+    }
+
+    @Override
+    public void add(Card card) throws IllegalArgumentException {
+        String[] values = keyValues(card);
+        int[] locked = stripesOf(values, null, null);
+        lock(locked);
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                if (keyMaps.get(keys[i]).containsKey(values[i])) {
+                    throw new IllegalArgumentException("duplicated key!");
+                }
+            }
+
+            // move the values into a store of their own; a card of another collection is copied instead
+            CardStore own = new CardStore(this, epoch);
+            CardStore from = card.store;
+            int fromSlot = card.slot;
+            if (from.owner != null) {
+                card = new Card(own);
+            } else {
+                own.append(card);
+            }
+            own.copy(card.slot, from, fromSlot);
+
+            for (int i = 0; i < keys.length; i++) {
+                keyMaps.get(keys[i]).put(values[i], card);
+            }
+            Stats current = stats;
+            synchronized (slotsLock) {
+                if (size == dense.length) {
+                    dense = Arrays.copyOf(dense, size * 2);
+                }
+                card.position = size;
+                dense[size] = card;
+                Partition partition = partitions[size % PARTITIONS];
+                synchronized (partition) {
+                    partition.sync(current);
+                    partition.weights.append(getFailure(card));
+                    partition.updateTotal();
+                    if (partition.due != null) {
+                        partition.due.add(size / PARTITIONS);
+                    }
+                }
+                size++;
+            }
+            addToBucket(current, card, getFailure(card));
+            for (Map.Entry<CardProperty, ConcurrentHashMap<String, Set<Card>>> index : secondary.entrySet()) {
+                addToIndex(index.getValue(), card.getProperty(index.getKey()), card);
+            }
+            for (CollectionListener listener : listeners) {
+                listener.cardAdded(card);
+            }
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    @Override
+    public void remove(CardProperty key, String value) {
+        ConcurrentHashMap<String, Card> map = keyMap(key);
+        while (true) {
+            Card card = map.get(value);
+            if (card == null) {
+                throw new NoSuchElementException("there is no such card.");
+            }
+            String[] values = keyValues(card);
+            int[] locked = stripesOf(values, null, null);
+            lock(locked);
+            try {
+                // the card may have been removed or re-keyed before the stripes were taken
+                if (map.get(value) != card || !Arrays.equals(values, keyValues(card))) {
+                    continue;
+                }
+                for (int i = 0; i < keys.length; i++) {
+                    keyMaps.get(keys[i]).remove(values[i]);
+                }
+                for (Map.Entry<CardProperty, ConcurrentHashMap<String, Set<Card>>> index : secondary.entrySet()) {
+                    removeFromIndex(index.getValue(), card.getProperty(index.getKey()), card);
+                }
+                // the monitor of the card orders the removal after its answers
+                synchronized (card) {
+                    Stats current = stats;
+                    removeFromBucket(current, card, card.store.failure(card.slot, current.epoch));
+                    synchronized (slotsLock) {
+                        removePosition(card.position, current);
+                        card.position = -1;
+                    }
+                    preserve(card);
+                    Card detached = new Card();
+                    detached.store.copy(detached.slot, card.store, card.slot);
+                    card.store = detached.store;
+                    card.slot = detached.slot;
+                    for (CollectionListener listener : listeners) {
+                        listener.cardRemoved(card);
+                    }
+                }
+                return;
+            } finally {
+                unlock(locked);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(CardProperty property, String value) {
+        ConcurrentHashMap<String, Card> map = keyMaps.get(property);
+        if (map != null) {
+            return map.containsKey(value);
+        }
+        if (property == CardProperty.FAILURE) {
+            int failure = parseFailure(value);
+            if (failure == 0) {
+                return size > stats.failedCards.get();
+            }
+            Set<Card> bucket = failure > 0 ? stats.buckets.get(failure) : null;
+            return bucket != null && !bucket.isEmpty();
+        }
+        Set<Card> matches = secondaryIndex(property).get(value);
+        return matches != null && !matches.isEmpty();
+    }
+
+    /**
+     * find every card with a given property value, through the key maps, the failure buckets
+     * or a secondary index built on the first query
+     */
+    @Override
+    public List<Card> findCards(CardProperty property, String value) {
+        List<Card> found = new ArrayList<>();
+        ConcurrentHashMap<String, Card> map = keyMaps.get(property);
+        if (map != null) {
+            Card card = map.get(value);
+            if (card != null) {
+                found.add(card);
+            }
+        } else if (property == CardProperty.FAILURE) {
+            int failure = parseFailure(value);
+            if (failure == 0) {
+                return unfailed();
+            }
+            Set<Card> bucket = failure > 0 ? stats.buckets.get(failure) : null;
+            if (bucket != null) {
+                found.addAll(bucket);
+            }
+        } else {
+            Set<Card> matches = secondaryIndex(property).get(value);
+            if (matches != null) {
+                found.addAll(matches);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Card> failuresAtLeast(int k) {
+        List<Card> found = new ArrayList<>();
+        for (Set<Card> bucket : stats.buckets.tailMap(Math.max(k, 1), true).descendingMap().values()) {
+            found.addAll(bucket);
+        }
+        if (k <= 0) {
+            found.addAll(unfailed());
+        }
+        return found;
+    }
+
+    /**
+     * the index is rebuilt on the next query by {@code property}
+     */
+    @Override
+    public void dropIndex(CardProperty property) {
+        secondary.remove(property);
+    }
+
+    @Override
+    public void dropIndexes() {
+        secondary.clear();
+    }
+
+    @Override
+    public AnswerIndex answerIndex(CardProperty property) {
+        AnswerIndex index = answerIndexes.get(property);
+        if (index != null) {
+            return index;
+        }
+        // no card may be added between the initial scan and the registration of the index
+        structure.writeLock().lock();
+        try {
+            return answerIndexes.computeIfAbsent(property, p -> new AnswerIndex(this, p));
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Card getCard(CardProperty key, String value) {
+        Card card = keyMap(key).get(value);
+        if (card == null) {
+            throw new NoSuchElementException("there is no such card.");
+        }
+        return card.copyOf();
+    }
+
+    @Override
+    public Card findCard(CardProperty key, String value) {
+        return keyMap(key).get(value);
+    }
+
+    /**
+     * returns a random card; the card may have been removed concurrently by the time it is returned
+     * @return Card chosen randomly
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public Card randomCard() {
+        while (true) {
+            // size first: a non-stale size guarantees that the array read after it is large enough
+            int n = size;
+            Card[] cards = dense;
+            if (n == 0) {
+                throw new NoSuchElementException("empty collection");
+            }
+            Card card = cards[ThreadLocalRandom.current().nextInt(n)];
+            if (card != null) {
+                return card;
+            }
+        }
+    }
+
+    /**
+     * returns a card drawn in proportion to its failure count plus one, in O(log n); a partition
+     * is chosen by its total weight as last published, then a card by weight within it
+     * @return Card chosen randomly by weight
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public Card weightedCard() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            if (size == 0) {
+                throw new NoSuchElementException("empty collection");
+            }
+            long sum = 0;
+            for (Partition partition : partitions) {
+                sum += partition.total;
+            }
+            if (sum == 0) {
+                continue;
+            }
+            long ticket = random.nextLong(sum);
+            for (int i = 0; i < PARTITIONS; i++) {
+                long total = partitions[i].total;
+                if (ticket < total) {
+                    Card card = draw(i, random);
+                    if (card != null) {
+                        return card;
+                    }
+                    break;
+                }
+                ticket -= total;
+            }
+        }
+    }
+
+    /**
+     * draw a card of partition {@code index} in proportion to its failure count plus one
+     * @return the card, or null if the partition is empty
+     */
+    private Card draw(int index, ThreadLocalRandom random) {
+        Partition partition = partitions[index];
+        synchronized (partition) {
+            partition.sync(stats);
+            int count = partition.weights.size();
+            // the first {@code count} tickets give every card weight one,
+            // the remaining ones are distributed by failure count
+            long total = count + partition.weights.total();
+            if (total == 0) {
+                return null;
+            }
+            long ticket = random.nextLong(total);
+            int local = ticket < count ? (int) ticket : partition.weights.find(ticket - count);
+            return dense[local * PARTITIONS + index];
+        }
+    }
+
+    /**
+     * returns the card due first among the cards due first in each partition; the due queues
+     * are built by the first call, in O(n) while no card changes
+     * @return the card with the earliest due time
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public Card dueCard() {
+        if (!dueIndexed) {
+            indexDue();
+        }
+        Card first = null;
+        int firstDue = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            Partition partition = partitions[i];
+            synchronized (partition) {
+                int local = partition.due.peek();
+                if (local < 0) {
+                    continue;
+                }
+                Card card = dense[local * PARTITIONS + i];
+                int due = card.getNumber(CardProperty.DUE);
+                if (first == null || due < firstDue) {
+                    first = card;
+                    firstDue = due;
+                }
+            }
+        }
+        if (first == null) {
+            throw new NoSuchElementException("empty collection");
+        }
+        return first;
+    }
+
+    private void indexDue() {
+        structure.writeLock().lock();
+        try {
+            if (dueIndexed) {
+                return;
+            }
+            for (int i = 0; i < PARTITIONS; i++) {
+                int index = i;
+                Partition partition = partitions[i];
+                synchronized (partition) {
+                    partition.due = new DueQueue(local -> dense[local * PARTITIONS + index].getNumber(CardProperty.DUE),
+                            partition.weights.size());
+                }
+            }
+            dueIndexed = true;
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * record an answer and schedule the next review, atomically with respect to other answers to the card
+     */
+    @Override
+    public void review(Card card, boolean correct) {
+        checkMember(card);
+        while (true) {
+            String[] values = keyValues(card);
+            int[] locked = stripesOf(values, null, null);
+            lock(locked);
+            try {
+                if (!Arrays.equals(values, keyValues(card))) {
+                    continue;
+                }
+                checkMember(card);
+                int[] next = Scheduler.next(card.getNumber(CardProperty.INTERVAL),
+                        card.getNumber(CardProperty.EASE), correct, Scheduler.now());
+                setProperty(card, CardProperty.INTERVAL, String.valueOf(next[0]));
+                setProperty(card, CardProperty.EASE, String.valueOf(next[1]));
+                setProperty(card, CardProperty.DUE, String.valueOf(next[2]));
+                return;
+            } finally {
+                unlock(locked);
+            }
+        }
+    }
+
+    @Override
+    public int fail(Card card) {
+        return setFailure(card, -1);
+    }
+
+    @Override
+    public void setProperty(Card card, CardProperty property, String value) {
+        checkMember(card);
+        if (property == CardProperty.FAILURE) {
+            int failure = value.isEmpty() ? 0 : Integer.parseInt(value);
+            if (failure < 0) {
+                throw new IllegalArgumentException("negative failure count");
+            }
+            setFailure(card, failure);
+            return;
+        }
+        String newValue = value.replace('\n', ' ');
+        ConcurrentHashMap<String, Card> map = keyMaps.get(property);
+        while (true) {
+            String[] values = keyValues(card);
+            int[] locked = stripesOf(values, map == null ? null : property, newValue);
+            lock(locked);
+            try {
+                if (!Arrays.equals(values, keyValues(card))) {
+                    continue;
+                }
+                checkMember(card);
+                String oldValue = card.getProperty(property);
+                if (map != null) {
+                    if (oldValue.equals(newValue)) {
+                        return;
+                    }
+                    if (map.containsKey(newValue)) {
+                        throw new IllegalArgumentException("duplicated key!");
+                    }
+                    map.remove(oldValue);
+                    map.put(newValue, card);
+                }
+                ConcurrentHashMap<String, Set<Card>> index = secondary.get(property);
+                if (index != null) {
+                    removeFromIndex(index, oldValue, card);
+                }
+                synchronized (card) {
+                    preserve(card);
+                    if (property == CardProperty.DUE) {
+                        setDue(card, newValue);
+                    } else {
+                        card.store.set(card.slot, property, newValue);
+                    }
+                }
+                if (index != null) {
+                    addToIndex(index, card.getProperty(property), card);
+                }
+                for (CollectionListener listener : listeners) {
+                    if (listener.observes(property)) {
+                        listener.propertyChanged(card, property, oldValue);
+                    }
+                }
+                return;
+            } finally {
+                unlock(locked);
+            }
+        }
+    }
+
+    /**
+     * reset the failure count of every card by starting a new statistics epoch, in O(1)
+     * while no card is added, removed or changed other than by an answer; waits for a
+     * snapshot being copied, which reads the counts of the epoch it was taken in
+     */
+    @Override
+    public void resetStats() {
+        synchronized (snapshotLock) {
+            structure.writeLock().lock();
+            try {
+                Stats next = new Stats(stats.epoch + 1);
+                epoch.set(next.epoch);
+                stats = next;
+                for (Partition partition : partitions) {
+                    synchronized (partition) {
+                        partition.sync(next);
+                    }
+                }
+                for (CollectionListener listener : listeners) {
+                    listener.statsReset();
+                }
+            } finally {
+                structure.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void addListener(CollectionListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(CollectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public int maxFailure() {
+        for (Map.Entry<Integer, Set<Card>> bucket : stats.buckets.descendingMap().entrySet()) {
+            if (!bucket.getValue().isEmpty()) {
+                return bucket.getKey();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * returns the cards sharing the highest failure count, in O(k) for k such cards
+     */
+    @Override
+    public List<Card> hardestCards() {
+        for (Set<Card> bucket : stats.buckets.descendingMap().values()) {
+            List<Card> hardest = new ArrayList<>(bucket);
+            if (!hardest.isEmpty()) {
+                return hardest;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Card> hardestCards(int n) {
+        List<Card> hardest = new ArrayList<>();
+        for (Set<Card> bucket : stats.buckets.descendingMap().values()) {
+            for (Card card : bucket) {
+                if (hardest.size() == n) {
+                    return hardest;
+                }
+                hardest.add(card);
+            }
+        }
+        return hardest;
+    }
+
+    @Override
+    public int exportCards(String path, boolean compressed) throws IOException {
+        return stableView().exportCards(path, compressed);
+    }
+
+    /**
+     * the stores of a concurrent collection are written in place, so the snapshot is a copy
+     */
+    @Override
+    public CardCollection snapshot() {
+        return stableView();
+    }
+
+    /**
+     * @return a copy of the collection as it was when its cards were captured, in O(1) while no
+     * card is added, removed or changed other than by an answer; the cards are copied after that,
+     * while the collection goes on changing. An answer racing with the capture may or may not
+     * be in the copy.
+     */
+    @Override
+    public CardCollection stableView() {
+        synchronized (snapshotLock) {
+            Capture taken;
+            structure.writeLock().lock();
+            try {
+                synchronized (slotsLock) {
+                    taken = new Capture(dense, size);
+                }
+                capture = taken;
+            } finally {
+                structure.writeLock().unlock();
+            }
+            try {
+                CardCollection copy = new CardCollection(keys, taken.size);
+                for (int i = 0; i < taken.size; i++) {
+                    Card card = taken.cards[i];
+                    synchronized (card) {
+                        copy.add(taken.preserved.getOrDefault(card, card));
+                    }
+                }
+                return copy;
+            } finally {
+                capture = null;
+            }
+        }
+    }
+
+    /**
+     * make room for at least {@code capacity} cards in the dense index; the key maps resize
+     * incrementally on their own
+     */
+    @Override
+    public void ensureCapacity(int capacity) {
+        synchronized (slotsLock) {
+            if (capacity > dense.length) {
+                dense = Arrays.copyOf(dense, capacity);
+            }
+        }
+    }
+
+    @Override
+    public int addNewLines(CardProperty[] order, String[] values, int count) {
+        int width = order.length;
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            Card card = new Card();
+            for (int j = 0; j < width; j++) {
+                card.setProperty(order[j], values[i * width + j]);
+            }
+            try {
+                add(card);
+                added++;
+            } catch (IllegalArgumentException e) {
+                // key taken
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @return the cards are kept on the heap, one store per card
+     */
+    @Override
+    public StorageMode getStorage() {
+        return StorageMode.HEAP;
+    }
+
+    @Override
+    public CardProperty[] getKeys() {
+        return keys.clone();
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return a weakly consistent iterator: it never throws {@code ConcurrentModificationException}
+     * and may or may not reflect mutations made after its creation
+     */
+    @Override
+    public Iterator<Card> iterator() {
+        return keyMaps.get(keys[0]).values().iterator();
+    }
+
+    /**
+     * @return a weakly consistent spliterator, so that streams can run while cards are added or removed
+     */
+    @Override
+    public Spliterator<Card> spliterator() {
+        return keyMaps.get(keys[0]).values().spliterator();
+    }
+
+    /**
+     * @return a stream of the cards present at some point during the call,
+     * parallel for large collections
+     */
+    private Stream<Card> scan() {
+        List<Card> cards = cards();
+        return cards.size() >= CardCollection.PARALLEL_THRESHOLD ? cards.parallelStream() : cards.stream();
+    }
+
+    /**
+     * @return the cards present at some point during the call
+     */
+    private List<Card> cards() {
+        int n = size;
+        Card[] cards = dense;
+        List<Card> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Card card = cards[i];
+            if (card != null) {
+                list.add(card);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the cards that never failed, by a scan
+     */
+    private List<Card> unfailed() {
+        return scan().filter(card -> getFailure(card) == 0).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * set the failure count of a card under its monitor, so that it moves between the failure
+     * buckets and reaches the listeners in the order of the changes, and never after the removal
+     * of the card. No other lock is held but the monitor of the card's partition, for its weight.
+     * An answer racing with {@code resetStats} may count in the epoch before the reset.
+     * @param failure the new failure count, or -1 to add one to the current count
+     * @return the new failure count
+     */
+    private int setFailure(Card card, int failure) {
+        synchronized (card) {
+            checkMember(card);
+            preserve(card);
+            Stats current = stats;
+            int old;
+            int updated;
+            if (failure < 0) {
+                updated = card.store.addFailureAtomic(card.slot, current.epoch);
+                old = updated - 1;
+            } else {
+                old = card.store.setFailureAtomic(card.slot, failure, current.epoch);
+                updated = failure;
+            }
+            removeFromBucket(current, card, old);
+            addToBucket(current, card, updated);
+            setWeight(card, current, updated);
+            String oldValue = old == 0 ? "" : Integer.toString(old);
+            for (CollectionListener listener : listeners) {
+                if (listener.observes(CardProperty.FAILURE)) {
+                    listener.propertyChanged(card, CardProperty.FAILURE, oldValue);
+                }
+            }
+            return updated;
+        }
+    }
+
+    /**
+     * set the weight of a card in the partition of its position, which moves only while
+     * the partition is locked
+     */
+    private void setWeight(Card card, Stats current, int failure) {
+        while (true) {
+            int position = card.position;
+            Partition partition = partitions[position % PARTITIONS];
+            synchronized (partition) {
+                if (card.position != position) {
+                    continue;
+                }
+                // the weights of a later epoch do not take a count of an earlier one
+                if (partition.sync(current)) {
+                    partition.weights.set(position / PARTITIONS, failure);
+                    partition.updateTotal();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * write the due time of a card and restore the order of the due queue of its partition;
+     * caller holds the monitor of the card
+     */
+    private void setDue(Card card, String value) {
+        while (true) {
+            int position = card.position;
+            Partition partition = partitions[position % PARTITIONS];
+            synchronized (partition) {
+                if (card.position != position) {
+                    continue;
+                }
+                card.store.set(card.slot, CardProperty.DUE, value);
+                if (partition.due != null) {
+                    partition.due.update(position / PARTITIONS);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * leave the values of a card to the snapshot being copied, if any, and go on in a copy,
+     * before the card is first changed after the capture; caller holds the monitor of the card
+     */
+    private void preserve(Card card) {
+        Capture taking = capture;
+        if (taking != null && !taking.preserved.containsKey(card)) {
+            taking.preserved.put(card, new Card(card.store, card.slot));
+            Card copy = new Card(new CardStore(this, epoch));
+            copy.store.copy(copy.slot, card.store, card.slot);
+            card.store = copy.store;
+            card.slot = copy.slot;
+        }
+    }
+
+    /**
+     * move the last card of the dense index into {@code position}, whose card leaves;
+     * caller holds slotsLock
+     */
+    private void removePosition(int position, Stats current) {
+        Capture taking = capture;
+        if (taking != null && dense == taking.cards) {
+            dense = dense.clone();
+        }
+        int last = size - 1;
+        Partition to = partitions[position % PARTITIONS];
+        Partition from = partitions[last % PARTITIONS];
+        // partitions are locked in index order
+        Partition first = position % PARTITIONS < last % PARTITIONS ? to : from;
+        Partition second = first == to ? from : to;
+        synchronized (first) {
+            synchronized (second) {
+                to.sync(current);
+                from.sync(current);
+                Card moved = dense[last];
+                dense[position] = moved;
+                moved.position = position;
+                to.weights.set(position / PARTITIONS, from.weights.get(last / PARTITIONS));
+                from.weights.removeLast();
+                if (to == from && to.due != null) {
+                    to.due.remove(position / PARTITIONS, last / PARTITIONS);
+                } else if (to.due != null) {
+                    from.due.remove(last / PARTITIONS, last / PARTITIONS);
+                    to.due.update(position / PARTITIONS);
+                }
+                dense[last] = null;
+                to.updateTotal();
+                from.updateTotal();
+            }
+        }
+        size = last;
+    }
+
+    private static void addToBucket(Stats stats, Card card, int failure) {
+        if (failure > 0) {
+            stats.buckets.computeIfAbsent(failure, f -> ConcurrentHashMap.newKeySet()).add(card);
+            stats.failedCards.incrementAndGet();
+        }
+    }
+
+    private static void removeFromBucket(Stats stats, Card card, int failure) {
+        if (failure > 0) {
+            stats.buckets.get(failure).remove(card);
+            stats.failedCards.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the index of a non-key property, built while no card changes if it does not exist yet
+     */
+    private ConcurrentHashMap<String, Set<Card>> secondaryIndex(CardProperty property) {
+        ConcurrentHashMap<String, Set<Card>> index = secondary.get(property);
+        if (index != null) {
+            return index;
+        }
+        structure.writeLock().lock();
+        try {
+            return secondary.computeIfAbsent(property, p -> {
+                ConcurrentHashMap<String, Set<Card>> built = new ConcurrentHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    addToIndex(built, dense[i].getProperty(p), dense[i]);
+                }
+                return built;
+            });
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * the set of a value is changed only inside {@code compute}, so that a set is never
+     * dropped while a card is being added to it
+     */
+    private static void addToIndex(ConcurrentHashMap<String, Set<Card>> index, String value, Card card) {
+        index.compute(value, (v, matches) -> {
+            Set<Card> set = matches == null ? ConcurrentHashMap.newKeySet() : matches;
+            set.add(card);
+            return set;
+        });
+    }
+
+    private static void removeFromIndex(ConcurrentHashMap<String, Set<Card>> index, String value, Card card) {
+        index.computeIfPresent(value, (v, matches) -> {
+            matches.remove(card);
+            return matches.isEmpty() ? null : matches;
+        });
+    }
+
+    private ConcurrentHashMap<String, Card> keyMap(CardProperty key) {
+        ConcurrentHashMap<String, Card> map = keyMaps.get(key);
+        if (map == null) {
+            throw new IllegalArgumentException("not a key");
+        }
+        return map;
+    }
+
+    private String[] keyValues(Card card) {
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = card.getProperty(keys[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return the sorted, distinct stripes of the key values, plus the stripe of
+     * {@code extraValue} under {@code extraKey} if it is not null
+     */
+    private int[] stripesOf(String[] values, CardProperty extraKey, String extraValue) {
+        int[] indexes = new int[values.length + (extraKey == null ? 0 : 1)];
+        for (int i = 0; i < values.length; i++) {
+            indexes[i] = stripe(keys[i], values[i]);
+        }
+        if (extraKey != null) {
+            indexes[values.length] = stripe(extraKey, extraValue);
+        }
+        Arrays.sort(indexes);
+        int distinct = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (i == 0 || indexes[i] != indexes[i - 1]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        return Arrays.copyOf(indexes, distinct);
+    }
+
+    private static int stripe(CardProperty key, String value) {
+        int h = value.hashCode() * 31 + key.ordinal();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private void lock(int[] locked) {
+        structure.readLock().lock();
+        for (int i : locked) {
+            stripes[i].lock();
+        }
+    }
+
+    private void unlock(int[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--) {
+            stripes[locked[i]].unlock();
+        }
+        structure.readLock().unlock();
+    }
+
+    private void checkMember(Card card) {
+        if (card.store.owner != this || card.position < 0) {
+            throw new IllegalArgumentException("not a card of this collection");
+        }
+    }
+
+    /**
+     * @return the failure count written as {@code value}, -1 if it is not a canonical failure count
+     */
+    private static int parseFailure(String value) {
+        if (value.isEmpty()) {
+            return 0;
+        }
+        try {
+            int failure = Integer.parseInt(value);
+            return failure > 0 && Integer.toString(failure).equals(value) ? failure : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * the failure buckets of one statistics epoch; {@code resetStats} starts over with new ones
+     */
+    private static final class Stats {
+        final int epoch;
+        /**
+         * cards with at least one failure in this epoch, grouped by failure count; a card moves
+         * between buckets under its monitor. Buckets are emptied but not removed, so that a card
+         * is never added to a bucket just dropped by another thread.
+         */
+        final ConcurrentSkipListMap<Integer, Set<Card>> buckets = new ConcurrentSkipListMap<>();
+        final AtomicInteger failedCards = new AtomicInteger();
+
+        Stats(int epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * the weights of the cards at positions {@code p} with {@code p % PARTITIONS} equal to the
+     * index of the partition, guarded by its monitor
+     */
+    private static final class Partition {
+        /**
+         * failure counts by {@code p / PARTITIONS}
+         */
+        final FenwickTree weights = new FenwickTree();
+        /**
+         * the positions by due time, divided by {@code PARTITIONS}; null until the first {@code dueCard}
+         */
+        DueQueue due;
+        /**
+         * the statistics epoch of the weights
+         */
+        int epoch;
+        /**
+         * the number of cards plus their failure counts, read without the monitor to choose a partition
+         */
+        volatile long total;
+
+        /**
+         * clear the weights of an earlier epoch than that of {@code stats}
+         * @return whether the weights are of the epoch of {@code stats}, and not of a later one
+         */
+        boolean sync(Stats stats) {
+            if (stats.epoch > epoch) {
+                weights.clear();
+                epoch = stats.epoch;
+                updateTotal();
+            }
+            return stats.epoch == epoch;
+        }
+
+        void updateTotal() {
+            total = weights.size() + weights.total();
+        }
+    }
+
+    /**
+     * the cards of a snapshot being copied, and the values of those changed since the capture
+     */
+    private static final class Capture {
+        /**
+         * the dense index at the capture, which a removal copies before changing it
+         */
+        final Card[] cards;
+        final int size;
+        /**
+         * the values at the capture of each card changed since, as a handle to its old store
+         */
+        final ConcurrentHashMap<Card, Card> preserved = new ConcurrentHashMap<>();
+
+        Capture(Card[] cards, int size) {
+            this.cards = cards;
+            this.size = size;
+        }
+    }
+}
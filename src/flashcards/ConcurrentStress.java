@@ -0,0 +1,264 @@
+package flashcards;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static flashcards.CardProperty.DEFINITION;
+import static flashcards.CardProperty.FAILURE;
+import static flashcards.CardProperty.TERM;
+
+/**
+ * Runs many threads against one {@link ConcurrentCardCollection} for a while, each adding and
+ * removing cards, drawing and failing cards, renaming definitions, scheduling reviews, asking
+ * for the hardest cards and the card due first, and now and then taking a snapshot or resetting
+ * the statistics, then checks that the indexes agree with the cards:
+ * every card is found by each of its keys, the dense positions are distinct, the failure buckets
+ * hold each failed card under its count, the answer index finds every definition, the card due
+ * first is due no later than any other, and a snapshot holds the values of the cards.
+ * Reports the operations per second and exits with status 1 if an invariant does not hold.
+ * <p>
+ * Usage: {@code ConcurrentStress <threads> <seconds> [deck]}
+ */
+public class ConcurrentStress {
+
+    private static final String[] OPERATIONS = {"ask", "weighted ask", "add", "remove", "rename",
+            "review", "hardest card", "find failures", "reset stats", "due card", "snapshot"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: ConcurrentStress <threads> <seconds> [deck]");
+            return;
+        }
+        int threads = Integer.parseInt(args[0]);
+        long seconds = Long.parseLong(args[1]);
+        int deckSize = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        ConcurrentCardCollection cards = new ConcurrentCardCollection(SessionReplay.generateDeck(deckSize));
+        cards.answerIndex(DEFINITION);
+        cards.findCards(CardProperty.INTERVAL, "1");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            results.add(pool.submit(() -> run(cards, id, deadline)));
+        }
+        long[] counts = new long[OPERATIONS.length];
+        for (Future<long[]> result : results) {
+            long[] done = result.get();
+            for (int op = 0; op < counts.length; op++) {
+                counts[op] += done[op];
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        System.out.printf("%d threads, %d cards left, %d operations in %.2f s: %.0f operations/s%n",
+                threads, cards.getSize(), total, elapsed / 1e9, total / (elapsed / 1e9));
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            System.out.printf("%-14s %12d%n", OPERATIONS[op], counts[op]);
+        }
+
+        List<String> violations = check(cards);
+        if (violations.isEmpty()) {
+            System.out.println("All invariants hold.");
+        } else {
+            violations.forEach(System.out::println);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run a mix of operations until {@code deadline}
+     * @return the number of operations of each kind
+     */
+    private static long[] run(ConcurrentCardCollection cards, int id, long deadline) {
+        SplittableRandom random = new SplittableRandom(id);
+        long[] counts = new long[OPERATIONS.length];
+        List<String> added = new ArrayList<>();
+        int next = 0;
+        while (System.nanoTime() < deadline) {
+            int roll = random.nextInt(100);
+            int op;
+            try {
+                if (random.nextInt(100_000) == 0) {
+                    op = 8;
+                    cards.resetStats();
+                } else if (random.nextInt(10_000) == 0) {
+                    op = 10;
+                    int before = cards.getSize();
+                    int taken = cards.snapshot().getSize();
+                    if (taken < before / 2 || taken > before * 2) {
+                        throw new IllegalStateException("snapshot of " + taken + " cards out of " + before);
+                    }
+                } else if (roll < 30) {
+                    op = 0;
+                    Card card = cards.randomCard();
+                    if (random.nextBoolean()) {
+                        cards.fail(card);
+                    }
+                } else if (roll < 45) {
+                    op = 1;
+                    cards.fail(cards.weightedCard());
+                } else if (roll < 60) {
+                    op = 2;
+                    Card card = new Card();
+                    String term = "stress-" + id + "-" + next++;
+                    card.setProperty(TERM, term);
+                    card.setProperty(DEFINITION, "definition of " + term);
+                    card.setProperty(FAILURE, Integer.toString(random.nextInt(3)));
+                    cards.add(card);
+                    added.add(term);
+                } else if (roll < 73) {
+                    op = 3;
+                    // half of the removals race with the other threads for a random card
+                    String term = added.isEmpty() || random.nextBoolean()
+                            ? cards.randomCard().getProperty(TERM) : added.remove(added.size() - 1);
+                    cards.remove(TERM, term);
+                } else if (roll < 80) {
+                    op = 4;
+                    Card card = cards.randomCard();
+                    cards.setProperty(card, DEFINITION, "renamed-" + id + "-" + next++);
+                } else if (roll < 85) {
+                    op = 5;
+                    cards.review(cards.randomCard(), random.nextBoolean());
+                } else if (roll < 88) {
+                    op = 9;
+                    cards.review(cards.dueCard(), random.nextBoolean());
+                } else if (roll < 96) {
+                    op = 6;
+                    cards.hardestCards();
+                    cards.hardestCards(10);
+                } else {
+                    op = 7;
+                    int max = Math.max(cards.maxFailure(), 1);
+                    cards.findCards(FAILURE, Integer.toString(Math.max(max - random.nextInt(3), 1)));
+                    cards.failuresAtLeast(max);
+                }
+            } catch (IllegalArgumentException | NoSuchElementException e) {
+                // the card was removed or re-keyed by another thread meanwhile
+                continue;
+            }
+            counts[op]++;
+        }
+        return counts;
+    }
+
+    /**
+     * @return a description of every invariant that does not hold, once no thread changes the cards
+     */
+    static List<String> check(ConcurrentCardCollection cards) {
+        List<String> violations = new ArrayList<>();
+        int size = cards.getSize();
+        HashSet<String> terms = new HashSet<>();
+        HashSet<String> definitions = new HashSet<>();
+        boolean[] positions = new boolean[size];
+        int failed = 0;
+        int maxFailure = 0;
+        int iterated = 0;
+        AnswerIndex answers = cards.answerIndex(DEFINITION);
+        // the cards found by each failure count and each interval, as sets of cards
+        HashMap<String, HashSet<Card>> byFailure = new HashMap<>();
+        HashMap<String, HashSet<Card>> byInterval = new HashMap<>();
+        for (Card card : cards) {
+            iterated++;
+            String term = card.getProperty(TERM);
+            String definition = card.getProperty(DEFINITION);
+            if (!terms.add(term) || !definitions.add(definition)) {
+                violations.add("duplicated key: " + term);
+            }
+            if (cards.findCard(TERM, term) != card || cards.findCard(DEFINITION, definition) != card) {
+                violations.add("not found by key: " + term);
+            }
+            if (card.position < 0 || card.position >= size || positions[card.position]) {
+                violations.add("bad dense position " + card.position + ": " + term);
+            } else {
+                positions[card.position] = true;
+            }
+            int failure = cards.getFailure(card);
+            if (failure > 0) {
+                failed++;
+                maxFailure = Math.max(maxFailure, failure);
+                if (!byFailure.computeIfAbsent(Integer.toString(failure),
+                        f -> new HashSet<>(cards.findCards(FAILURE, f))).contains(card)) {
+                    violations.add("not in the failure bucket " + failure + ": " + term);
+                }
+            }
+            if (answers.find(definition) != card) {
+                violations.add("not found by the answer index: " + term);
+            }
+            if (!byInterval.computeIfAbsent(card.getProperty(CardProperty.INTERVAL),
+                    interval -> new HashSet<>(cards.findCards(CardProperty.INTERVAL, interval))).contains(card)) {
+                violations.add("not found by interval: " + term);
+            }
+        }
+        int indexed = 0;
+        for (HashSet<Card> matches : byInterval.values()) {
+            indexed += matches.size();
+        }
+        if (indexed != size) {
+            violations.add(size + " cards but " + indexed + " found by interval");
+        }
+        if (iterated != size) {
+            violations.add("size " + size + " but " + iterated + " cards");
+        }
+        if (cards.failuresAtLeast(1).size() != failed) {
+            violations.add(failed + " failed cards but " + cards.failuresAtLeast(1).size() + " in the buckets");
+        }
+        if (cards.maxFailure() != maxFailure) {
+            violations.add("max failure " + maxFailure + " but " + cards.maxFailure() + " reported");
+        }
+        for (Card card : cards.hardestCards()) {
+            if (cards.getFailure(card) != maxFailure) {
+                violations.add("not among the hardest cards: " + card.getProperty(TERM));
+            }
+        }
+        for (int i = 0; i < 1000 && size > 0; i++) {
+            Card card = cards.weightedCard();
+            if (cards.findCard(TERM, card.getProperty(TERM)) != card) {
+                violations.add("weighted draw of a removed card: " + card.getProperty(TERM));
+            }
+        }
+        if (size > 0) {
+            int firstDue = Integer.MAX_VALUE;
+            for (Card card : cards) {
+                firstDue = Math.min(firstDue, card.getNumber(CardProperty.DUE));
+            }
+            if (cards.dueCard().getNumber(CardProperty.DUE) != firstDue) {
+                violations.add("due card " + cards.dueCard().getProperty(TERM) + " is not due first");
+            }
+        }
+        CardCollection view = cards.stableView();
+        if (view.getSize() != size) {
+            violations.add("stable view of " + view.getSize() + " cards");
+        }
+        for (Card card : cards) {
+            String term = card.getProperty(TERM);
+            Card copy = view.findCard(TERM, term);
+            if (copy == null || view.getFailure(copy) != cards.getFailure(card)) {
+                violations.add("stable view differs on the failures of " + term);
+                continue;
+            }
+            for (CardProperty property : CardProperty.values()) {
+                if (property != FAILURE && !Objects.equals(copy.getProperty(property), card.getProperty(property))) {
+                    violations.add("stable view differs on the " + property + " of " + term);
+                }
+            }
+        }
+        return violations;
+    }
+}
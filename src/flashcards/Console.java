@@ -0,0 +1,89 @@
+package flashcards;
+
+import java.io.PrintWriter;
+import java.util.Scanner;
+
+/**
+ * The input and output of one session: every message is formatted once, recorded by the logger
+ * and written to a buffered writer, which is flushed only when input is about to be read.
+ * In quiet mode prompts are neither written nor logged, for scripted runs.
+ */
+public class Console {
+
+    private final Logger logger;
+    private final Scanner scanner;
+    private final PrintWriter out;
+    private final boolean quiet;
+
+    /**
+     * total time spent waiting for input, so that the time of a command can exclude the user's
+     */
+    private long inputNanos;
+
+    /**
+     * @param logger records the transcript
+     * @param scanner source of input lines
+     * @param out buffered destination of output, not flushed automatically
+     * @param quiet whether to skip prompts
+     */
+    public Console(Logger logger, Scanner scanner, PrintWriter out, boolean quiet) {
+        this.logger = logger;
+        this.scanner = scanner;
+        this.out = out;
+        this.quiet = quiet;
+    }
+
+    /**
+     * write a message; without {@code args} the message is written as is, not as a format
+     */
+    public void output(String format, Object ... args) {
+        String message = args.length == 0 ? format : String.format(format, args);
+        out.write(message);
+        logger.log(message);
+    }
+
+    /**
+     * write a message that asks for input, unless in quiet mode
+     */
+    public void prompt(String format, Object ... args) {
+        if (!quiet) {
+            output(format, args);
+        }
+    }
+
+    /**
+     * flush the output and read one line of input
+     * @return the line, without line terminator
+     * @throws EndOfInputException if the input has ended
+     */
+    public String getInput() {
+        out.flush();
+        long start = System.nanoTime();
+        if (!scanner.hasNextLine()) {
+            throw new EndOfInputException();
+        }
+        String input = scanner.nextLine();
+        inputNanos += System.nanoTime() - start;
+        logger.log(input + "\n");
+        return input;
+    }
+
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * @return the total time spent waiting for input so far, in nanoseconds
+     */
+    public long getInputNanos() {
+        return inputNanos;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public boolean isQuiet() {
+        return quiet;
+    }
+}
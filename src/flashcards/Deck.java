@@ -0,0 +1,47 @@
+package flashcards;
+
+import java.io.IOException;
+
+/**
+ * The collection that the sessions work on. An import replaces the collection as a whole,
+ * for every session at once.
+ */
+class Deck {
+
+    private volatile Cards cards;
+    private final CardJournal journal;
+    private final boolean shared;
+
+    /**
+     * @param cards the initial collection
+     * @param journal journals the collection, or null
+     * @param shared whether sessions on several threads use the deck; the collection
+     *               should then be a {@link ConcurrentCardCollection}
+     */
+    Deck(Cards cards, CardJournal journal, boolean shared) {
+        this.cards = cards;
+        this.journal = journal;
+        this.shared = shared;
+    }
+
+    Cards cards() {
+        return cards;
+    }
+
+    /**
+     * replace the collection, e.g. after an import, and start journaling the new one; the
+     * sessions see the new collection only once it is journaled, so that none of its changes
+     * are missed, and what they still change in the old one is dropped
+     * @param imported the new collection
+     * @throws IOException if the journal cannot be rebased
+     */
+    synchronized void replace(Cards imported) throws IOException {
+        if (shared && !(imported instanceof ConcurrentCardCollection)) {
+            imported = new ConcurrentCardCollection(imported);
+        }
+        if (journal != null) {
+            journal.rebase(imported);
+        }
+        cards = imported;
+    }
+}
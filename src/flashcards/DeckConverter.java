@@ -0,0 +1,32 @@
+package flashcards;
+
+import java.io.IOException;
+
+/**
+ * Converts deck files between the text and the binary snapshot format.
+ * Usage: {@code DeckConverter <input> <output> [text|binary]}; the input format is detected
+ * from the file content and the output format defaults to the one implied by the output extension.
+ */
+public class DeckConverter {
+
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("usage: DeckConverter <input> <output> [text|binary]");
+            return;
+        }
+        try {
+            DeckFormat outputFormat = args.length == 3
+                    ? DeckFormat.valueOf(args[2].toUpperCase())
+                    : DeckFormat.forPath(args[1]);
+            Cards cards = DeckFormat.detect(args[0]).read(args[0]);
+            int written = outputFormat.write(cards, args[1]);
+            System.out.printf("%d cards have been converted to %s.\n", written, outputFormat.toString().toLowerCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("illegal format: should be text or binary.");
+        } catch (IOException e) {
+            System.out.println("Conversion failed: " + e.getMessage());
+        } catch (ImportException e) {
+            System.out.println("Conversion failed: corrupted input file.");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * File formats a card collection can be imported from and exported to.
+ */
+public enum DeckFormat {
+    /**
+     * the "Card Collections" text format
+     */
+    TEXT,
+    /**
+     * the binary snapshot format, see {@link CardSnapshot}
+     */
+    BINARY;
+
+    /**
+     * file extension of binary snapshots
+     */
+    public static final String SNAPSHOT_EXTENSION = ".fcs";
+
+    /**
+     * choose a format by file extension
+     * @param path path to a deck file
+     * @return BINARY for {@code .fcs} files, TEXT otherwise
+     */
+    public static DeckFormat forPath(String path) {
+        return path.endsWith(SNAPSHOT_EXTENSION) ? BINARY : TEXT;
+    }
+
+    /**
+     * choose a format by the content of an existing file
+     * @param path path to a deck file
+     * @return BINARY if the file starts with the snapshot magic, TEXT otherwise
+     * @throws IOException if the file cannot be read
+     */
+    public static DeckFormat detect(String path) throws IOException {
+        return CardSnapshot.isSnapshot(Paths.get(path)) ? BINARY : TEXT;
+    }
+
+    /**
+     * import a card collection in this format
+     * @param path path to the file
+     * @return a CardCollection
+     * @throws IOException if file does not exist
+     * @throws ImportException if import file is illegal
+     */
+    public CardCollection read(String path) throws IOException, ImportException {
+        return this == BINARY ? CardSnapshot.read(Paths.get(path)) : CardCollection.importCards(path);
+    }
+
+    /**
+     * import a card collection in this format
+     * @param path path to the file
+     * @param storage where the text of the imported cards is kept
+     * @return the imported cards
+     * @throws IOException if file does not exist
+     * @throws ImportException if import file is illegal
+     */
+    public Cards read(String path, StorageMode storage) throws IOException, ImportException {
+        Path file = Paths.get(path);
+        if (this == BINARY) {
+            return CardSnapshot.read(file, storage);
+        }
+        return CardCollection.importCards(path, storage);
+    }
+
+    /**
+     * merge a card collection in this format into {@code cards}
+     * @param path path to the file
+     * @param cards the collection to merge into
+     * @param policy what to do with a card whose term or definition is taken
+     * @return the counts of the merge
+     * @throws IOException if file does not exist
+     * @throws ImportException if import file is illegal
+     */
+    public MergeReport merge(String path, Cards cards, MergePolicy policy)
+            throws IOException, ImportException {
+        if (this == BINARY) {
+            // snapshots are mapped, not parsed; merge the loaded cards
+            return CardMerger.merge(CardSnapshot.read(Paths.get(path)), cards, policy);
+        }
+        return cards.mergeCards(path, policy);
+    }
+
+    /**
+     * export a card collection in this format; the file is written next to {@code path} and
+     * renamed over it, so readers see either the old file or the whole new one
+     * @param cards the collection to write
+     * @param path file path
+     * @return the number of cards written
+     * @throws IOException if the path is invalid
+     */
+    public int write(Cards cards, String path) throws IOException {
+        Path file = Paths.get(path);
+        Path temp = Paths.get(path + ".tmp");
+        try {
+            int written = this == BINARY
+                    ? CardSnapshot.write(cards.stableView(), temp)
+                    : cards.exportCards(temp.toString(), path.endsWith(Gzip.EXTENSION));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A text deck opened in place, with a sidecar index {@code deck.txt.idx} to find its cards:
+ * <pre>
+ * header:   magic "FCIX", int version, long deck size, long deck modification time,
+ *           int card count, int table capacity, int failed card count, int 0,
+ *           long sum of the failure counts, zeros up to byte 64
+ * offsets:  count + 1 longs, the file offset of each card and the end of the last one
+ * tables:   for each key of the deck, capacity entries of int hash, int card number + 1 (0 if free),
+ *           an open-addressing table with linear probing of the hashes of the UTF-8 key values
+ * due:      count ints, the card numbers ordered by due time, then by number; zeros up to a long
+ * failures: for each card that has failed, int card number and int failure count, ordered by
+ *           failure count descending, then by number; then for each of them a long, the sum of
+ *           the failure counts up to and including it
+ * </pre>
+ * All integers are big-endian. The index is rebuilt by one scan of the deck whenever it is
+ * missing or the deck has changed since, and the scan checks the cards like an import does.
+ * Both files are memory-mapped, so opening a deck takes the same time whatever its size,
+ * and finding a card reads a few table entries and the card itself.
+ * The deck must not be written in place while it is open; exports replace files by renaming.
+ */
+class DeckIndex {
+
+    static final String EXTENSION = ".idx";
+    static final byte[] MAGIC = {'F', 'C', 'I', 'X'};
+    static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 64;
+    /**
+     * the most cards whose tables have an int capacity
+     */
+    private static final int MAX_CARDS = 1 << 29;
+
+    private final MappedPages deck;
+    private final MappedPages index;
+    private final int size;
+    private final CardProperty[] keys;
+    private final CardProperty[] properties;
+    /**
+     * the line of each key within a card
+     */
+    private final int[] keyColumns;
+    private final int mask;
+    private final int failedCount;
+    private final long totalFailure;
+
+    private DeckIndex(MappedPages deck, MappedPages index, CardImporter.Header header, int capacity) {
+        this.deck = deck;
+        this.index = index;
+        this.size = header.size;
+        this.keys = header.keys;
+        this.properties = header.properties;
+        keyColumns = new int[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            keyColumns[k] = Arrays.asList(properties).indexOf(keys[k]);
+        }
+        mask = capacity - 1;
+        failedCount = index.getInt(32);
+        totalFailure = index.getLong(40);
+    }
+
+    /**
+     * open a text deck, reading its index or building it first
+     * @param path path to the deck
+     * @throws IOException if the deck cannot be read or the index cannot be written
+     * @throws ImportException if the deck is not a legal card collection
+     */
+    static DeckIndex open(Path path) throws IOException, ImportException {
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        CardImporter.Header header;
+        MappedPages deck;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            header = new CardImporter(false).readHeader(new LineReader(channel, 1 << 16));
+            deck = new MappedPages(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+        }
+        // the size in the header is not trusted: check it before it sizes the index
+        if ((long) header.size * header.properties.length > deck.size() - bodyStart(deck)) {
+            throw new ImportException("illegal import file: missing cards");
+        }
+        if (header.size > MAX_CARDS) {
+            throw new ImportException("illegal import file: too many cards to open in place");
+        }
+        Path indexPath = Paths.get(path + EXTENSION);
+        int capacity = tableSize(header.size);
+        // the failures follow, as many as the header says
+        long length = duePosition(header.size, capacity, header.keys.length) + (4L * header.size + 7 & ~7L);
+
+        MappedPages index = readIndex(indexPath, length, deck.size(), modified, header.size, capacity);
+        if (index != null) {
+            return new DeckIndex(deck, index, header, capacity);
+        }
+
+        // build the index next to its final place, and rename it there once complete
+        Path temp = Paths.get(indexPath + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedPages building = new MappedPages(channel, FileChannel.MapMode.READ_WRITE, length);
+                building.putInt(0, ByteBuffer.wrap(MAGIC).getInt());
+                building.putInt(4, VERSION);
+                building.putLong(8, deck.size());
+                building.putLong(16, modified);
+                building.putInt(24, header.size);
+                building.putInt(28, capacity);
+                long[] failures = new DeckIndex(deck, building, header, capacity).scan(bodyStart(deck));
+                long total = 0;
+                for (long failure : failures) {
+                    total += (int) -(failure >> 32);
+                }
+                building.putInt(32, failures.length);
+                building.putLong(40, total);
+                building.force();
+                writeFailures(channel, length, failures);
+            }
+            Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new DeckIndex(deck, readIndex(indexPath, length, deck.size(), modified, header.size, capacity),
+                header, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    CardProperty[] keys() {
+        return keys;
+    }
+
+    /**
+     * @return the properties of the cards in the order of their lines
+     */
+    CardProperty[] properties() {
+        return properties;
+    }
+
+    /**
+     * @param key the position of the key in {@code keys()}
+     * @return the number of the card with that key value, -1 if there is none
+     */
+    int find(int key, String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(utf8);
+        long table = tablePosition(key);
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long entry = table + 8L * i;
+            int stored = index.getInt(entry + 4);
+            if (stored == 0) {
+                return -1;
+            }
+            if (index.getInt(entry) == hash && Arrays.equals(value(stored - 1, keyColumns[key]), utf8)) {
+                return stored - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the values of a card in the order of {@code properties()}
+     */
+    String[] values(int card) {
+        long start = offset(card);
+        byte[] bytes = new byte[(int) (offset(card + 1) - start)];
+        deck.get(start, bytes, 0, bytes.length);
+        String[] values = new String[properties.length];
+        int from = 0;
+        for (int column = 0; column < values.length; column++) {
+            int to = from;
+            while (to < bytes.length && bytes[to] != '\n') {
+                to++;
+            }
+            int end = to > from && bytes[to - 1] == '\r' ? to - 1 : to;
+            values[column] = new String(bytes, from, end - from, StandardCharsets.UTF_8);
+            from = to + 1;
+        }
+        return values;
+    }
+
+    /**
+     * @return a numeric property of a card without decoding the card, 0 if the deck has no such property
+     */
+    int number(int card, CardProperty property) {
+        int column = Arrays.asList(properties).indexOf(property);
+        if (column < 0) {
+            return 0;
+        }
+        return CardStore.parseNumber(new String(value(card, column), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the number of cards that have failed
+     */
+    int failedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return the sum of the failure counts of the cards
+     */
+    long totalFailure() {
+        return totalFailure;
+    }
+
+    /**
+     * @param i a position in the order by failure count, in [0, failedCount())
+     * @return the number of the card at that position
+     */
+    int failedCard(int i) {
+        return index.getInt(failuresPosition() + 8L * i);
+    }
+
+    /**
+     * @param i a position in the order by failure count, in [0, failedCount())
+     * @return the failure count of the card at that position
+     */
+    int failedFailure(int i) {
+        return index.getInt(failuresPosition() + 8L * i + 4);
+    }
+
+    /**
+     * find the failed card whose failures contain a ticket, in O(log n)
+     * @param ticket a value in [0, totalFailure())
+     * @return the position of the card in the order by failure count
+     */
+    int failedAt(long ticket) {
+        long sums = failuresPosition() + 8L * failedCount;
+        int low = 0;
+        int high = failedCount - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (index.getLong(sums + 8L * middle) > ticket) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param i a position in the order by due time, in [0, size())
+     * @return the number of the card at that position
+     */
+    int dueCard(int i) {
+        return index.getInt(duePosition(size, mask + 1, keys.length) + 4L * i);
+    }
+
+    /**
+     * record the offset of every card and the hash of every key value, checking the values,
+     * and the order of the cards by due time
+     * @return the failed cards, each as its negated failure count above its number, in the
+     * order of the failures section
+     */
+    private long[] scan(long position) throws ImportException {
+        long end = deck.size();
+        int[] keyOfColumn = new int[properties.length];
+        Arrays.fill(keyOfColumn, -1);
+        for (int k = 0; k < keys.length; k++) {
+            keyOfColumn[keyColumns[k]] = k;
+        }
+        int failureColumn = Arrays.asList(properties).indexOf(CardProperty.FAILURE);
+        int dueColumn = Arrays.asList(properties).indexOf(CardProperty.DUE);
+        long[] failures = new long[16];
+        int failed = 0;
+        // each card as its due time above its number, sorted once all are read
+        long[] dues = dueColumn < 0 ? null : new long[size];
+        for (int card = 0; card < size; card++) {
+            index.putLong(offsetPosition(card), position);
+            for (int column = 0; column < properties.length; column++) {
+                if (position >= end) {
+                    throw new ImportException("illegal import file: missing cards");
+                }
+                long lineEnd = position;
+                while (lineEnd < end && deck.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                long valueEnd = lineEnd > position && deck.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (properties[column].isNumeric()) {
+                    int number = checkNumber(position, valueEnd);
+                    if (column == failureColumn && number > 0) {
+                        if (failed == failures.length) {
+                            failures = Arrays.copyOf(failures, failed * 2);
+                        }
+                        failures[failed++] = (long) -number << 32 | card;
+                    } else if (column == dueColumn) {
+                        dues[card] = (long) number << 32 | card;
+                    }
+                }
+                if (keyOfColumn[column] >= 0) {
+                    insert(keyOfColumn[column], card, hash(position, valueEnd));
+                }
+                position = Math.min(lineEnd + 1, end);
+            }
+        }
+        index.putLong(offsetPosition(size), position);
+        long due = duePosition(size, mask + 1, keys.length);
+        if (dues != null) {
+            Arrays.sort(dues);
+        }
+        for (int i = 0; i < size; i++) {
+            index.putInt(due + 4L * i, dues == null ? i : (int) dues[i]);
+        }
+        failures = Arrays.copyOf(failures, failed);
+        Arrays.sort(failures);
+        return failures;
+    }
+
+    /**
+     * @return the value of a numeric line
+     */
+    private int checkNumber(long from, long to) throws ImportException {
+        byte[] value = new byte[(int) (to - from)];
+        deck.get(from, value, 0, value.length);
+        try {
+            return CardStore.parseNumber(new String(value, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            throw new ImportException("illegal import file: illegal value");
+        }
+    }
+
+    /**
+     * append the failures section at {@code position}, a chunk at a time
+     */
+    private static void writeFailures(FileChannel channel, long position, long[] failures) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        long sum = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (long failure : failures) {
+                if (!chunk.hasRemaining()) {
+                    position += write(channel, chunk, position);
+                }
+                int count = (int) -(failure >> 32);
+                if (pass == 0) {
+                    chunk.putInt((int) failure).putInt(count);
+                } else {
+                    sum += count;
+                    chunk.putLong(sum);
+                }
+            }
+        }
+        write(channel, chunk, position);
+    }
+
+    /**
+     * write out a filled chunk and clear it
+     * @return the number of bytes written
+     */
+    private static int write(FileChannel channel, ByteBuffer chunk, long position) throws IOException {
+        chunk.flip();
+        int written = chunk.remaining();
+        while (chunk.hasRemaining()) {
+            position += channel.write(chunk, position);
+        }
+        chunk.clear();
+        return written;
+    }
+
+    private void insert(int key, int card, int hash) throws ImportException {
+        long table = tablePosition(key);
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long entry = table + 8L * i;
+            int stored = index.getInt(entry + 4);
+            if (stored == 0) {
+                index.putInt(entry, hash);
+                index.putInt(entry + 4, card + 1);
+                return;
+            }
+            if (index.getInt(entry) == hash
+                    && Arrays.equals(value(stored - 1, keyColumns[key]), value(card, keyColumns[key]))) {
+                throw new ImportException("illegal import file: duplicated key!");
+            }
+        }
+    }
+
+    /**
+     * @return the UTF-8 bytes of one line of a card
+     */
+    private byte[] value(int card, int column) {
+        long position = offset(card);
+        long end = deck.size();
+        for (int i = 0; i < column; i++) {
+            while (deck.get(position) != '\n') {
+                position++;
+            }
+            position++;
+        }
+        long lineEnd = position;
+        while (lineEnd < end && deck.get(lineEnd) != '\n') {
+            lineEnd++;
+        }
+        if (lineEnd > position && deck.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        byte[] value = new byte[(int) (lineEnd - position)];
+        deck.get(position, value, 0, value.length);
+        return value;
+    }
+
+    private long offset(int card) {
+        return index.getLong(offsetPosition(card));
+    }
+
+    private static long offsetPosition(int card) {
+        return HEADER_BYTES + 8L * card;
+    }
+
+    private long tablePosition(int key) {
+        return offsetPosition(size + 1) + 8L * (mask + 1) * key;
+    }
+
+    private static long duePosition(int size, int capacity, int keys) {
+        return offsetPosition(size + 1) + 8L * capacity * keys;
+    }
+
+    private long failuresPosition() {
+        return duePosition(size, mask + 1, keys.length) + (4L * size + 7 & ~7L);
+    }
+
+    /**
+     * @param length the length of the index up to its failures
+     * @return the index if it exists and was built for this very deck, null otherwise
+     */
+    private static MappedPages readIndex(Path indexPath, long length, long deckSize, long modified,
+                                         int size, int capacity) throws IOException {
+        if (!Files.isRegularFile(indexPath) || Files.size(indexPath) < length) {
+            return null;
+        }
+        long fileSize = Files.size(indexPath);
+        MappedPages index;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            index = new MappedPages(channel, FileChannel.MapMode.READ_ONLY, fileSize);
+        }
+        if (index.getInt(0) != ByteBuffer.wrap(MAGIC).getInt() || index.getInt(4) != VERSION
+                || index.getLong(8) != deckSize || index.getLong(16) != modified
+                || index.getInt(24) != size || index.getInt(28) != capacity
+                || fileSize != length + 16L * index.getInt(32)) {
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * @return the offset of the first card, behind the four lines of the header
+     */
+    private static long bodyStart(MappedPages deck) {
+        long position = 0;
+        for (int lines = 0; lines < 4 && position < deck.size(); position++) {
+            if (deck.get(position) == '\n') {
+                lines++;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return the smallest power of two that holds {@code size} entries at most half full
+     */
+    private static int tableSize(int size) {
+        return Integer.highestOneBit(Math.max(size, 8) * 2 - 1) * 2;
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 0;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        return mix(hash);
+    }
+
+    private int hash(long from, long to) {
+        int hash = 0;
+        for (long position = from; position < to; position++) {
+            hash = 31 * hash + deck.get(position);
+        }
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
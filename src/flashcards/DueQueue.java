@@ -0,0 +1,131 @@
+package flashcards;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An indexed binary min-heap of the slots of a {@link CardStore}, ordered by the {@code DUE}
+ * property, or of any dense indexes ordered by a due time. The slot due first is found in O(1);
+ * adding, removing and rescheduling a slot take O(log n).
+ */
+class DueQueue {
+
+    private final IntUnaryOperator due;
+    private int[] heap;
+    /**
+     * the index in {@code heap} of each slot
+     */
+    private int[] positions;
+    private int size;
+
+    /**
+     * build a queue of the slots {@code [0, count)} in O(n)
+     */
+    DueQueue(CardStore store, int count) {
+        this(slot -> store.getNumber(slot, CardProperty.DUE), count);
+    }
+
+    /**
+     * build a queue of the indexes {@code [0, count)} in O(n)
+     * @param due the due time of the card at an index
+     */
+    DueQueue(IntUnaryOperator due, int count) {
+        this.due = due;
+        this.heap = new int[Math.max(count, 16)];
+        this.positions = new int[heap.length];
+        for (int slot = 0; slot < count; slot++) {
+            heap[slot] = slot;
+            positions[slot] = slot;
+        }
+        size = count;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * @return the slot due first, -1 if the queue is empty
+     */
+    int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    void add(int slot) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        if (slot >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(slot + 1, positions.length * 2));
+        }
+        heap[size] = slot;
+        positions[slot] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * restore the order after the due time of {@code slot} has changed
+     */
+    void update(int slot) {
+        int i = positions[slot];
+        siftUp(i);
+        siftDown(positions[slot]);
+    }
+
+    /**
+     * remove the card of {@code slot} after the card of {@code last} was moved into its slot
+     */
+    void remove(int slot, int last) {
+        int i = positions[slot];
+        if (slot != last) {
+            int j = positions[last];
+            heap[j] = slot;
+            positions[slot] = j;
+        }
+        int moved = heap[--size];
+        if (i < size) {
+            heap[i] = moved;
+            positions[moved] = i;
+            update(moved);
+        }
+    }
+
+    private boolean less(int a, int b) {
+        return due.applyAsInt(a) < due.applyAsInt(b);
+    }
+
+    private void siftUp(int i) {
+        int slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(slot, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            positions[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        positions[slot] = i;
+    }
+
+    private void siftDown(int i) {
+        int slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], slot)) {
+                break;
+            }
+            heap[i] = heap[child];
+            positions[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        positions[slot] = i;
+    }
+}
@@ -0,0 +1,16 @@
+package flashcards;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The input of a session has ended, e.g. the client has left. Unlike the other
+ * {@code NoSuchElementException}s, which mean that a card is missing, it ends the session.
+ */
+public class EndOfInputException extends NoSuchElementException {
+
+    private static final long serialVersionUID = 3405946326207441129L;
+
+    EndOfInputException() {
+        super("the input has ended");
+    }
+}
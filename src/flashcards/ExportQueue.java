@@ -0,0 +1,117 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes exports on a background thread, one after the other, from snapshots of the collections,
+ * so that the session goes on while a large deck is saved. The outcome of an export is reported
+ * to the console that asked for it, before its next prompt.
+ */
+class ExportQueue {
+
+    /**
+     * collections at least this large are exported in the background
+     */
+    static final int BACKGROUND_THRESHOLD = 100_000;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "export");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ArrayList<Export> pending = new ArrayList<>();
+
+    /**
+     * @return whether {@code cards} should be exported in the background; so is every export
+     * while another one is running, to keep exports to the same file in order
+     */
+    synchronized boolean inBackground(Cards cards) {
+        return cards.getSize() >= BACKGROUND_THRESHOLD || !pending.isEmpty();
+    }
+
+    /**
+     * export a snapshot in the background
+     * @param console the console to report to
+     * @param snapshot cards that no longer change, see {@link Cards#snapshot()}
+     * @param path file path
+     * @param format deck file format, null to choose it by file extension
+     * @param metrics records the export once it is written
+     */
+    synchronized void submit(Console console, Cards snapshot, String path, DeckFormat format,
+                             Metrics metrics) {
+        Future<Integer> saved = executor.submit(() -> {
+            DeckFormat fileFormat = format == null ? DeckFormat.forPath(path) : format;
+            long start = System.nanoTime();
+            int written = fileFormat.write(snapshot, path);
+            metrics.recordExport(Files.size(Paths.get(path)), written, System.nanoTime() - start);
+            return written;
+        });
+        pending.add(new Export(console, path, saved));
+    }
+
+    /**
+     * report the exports of {@code console} that have finished
+     */
+    void reportFinished(Console console) {
+        for (Export export : take(console, false)) {
+            report(export);
+        }
+    }
+
+    /**
+     * wait for the exports of {@code console} and report them
+     */
+    void awaitAll(Console console) {
+        for (Export export : take(console, true)) {
+            report(export);
+        }
+    }
+
+    private synchronized ArrayList<Export> take(Console console, boolean all) {
+        ArrayList<Export> taken = new ArrayList<>();
+        for (Iterator<Export> i = pending.iterator(); i.hasNext(); ) {
+            Export export = i.next();
+            if (export.console == console && (all || export.saved.isDone())) {
+                taken.add(export);
+                i.remove();
+            }
+        }
+        return taken;
+    }
+
+    private static void report(Export export) {
+        Console console = export.console;
+        try {
+            console.output("%d cards have been saved to %s.\n\n", export.saved.get(), export.path);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                console.output("Export to %s failed: illegal path.\n\n", export.path);
+            } else {
+                console.output("Export to %s failed: %s\n\n", export.path, e.getCause());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            console.output("Export to %s was interrupted.\n\n", export.path);
+        }
+    }
+
+    private static class Export {
+        final Console console;
+        final String path;
+        final Future<Integer> saved;
+
+        Export(Console console, String path, Future<Integer> saved) {
+            this.console = console;
+            this.path = path;
+            this.saved = saved;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package flashcards;
+
+/**
+ * A binary indexed tree over non-negative weights, supporting point updates,
+ * prefix sums and weighted sampling in O(log n).
+ * Clearing is O(1): every entry is stamped with the generation it was written in,
+ * and entries from an older generation read as zero.
+ */
+public class FenwickTree {
+
+    /**
+     * 1-based tree array, {@code tree[i]} holds the sum of the range ending at {@code i}
+     */
+    private long[] tree;
+    private long[] weights;
+    private int[] treeStamps;
+    private int[] weightStamps;
+    private int generation;
+    private int size;
+    private long total;
+
+    public FenwickTree() {
+        tree = new long[17];
+        weights = new long[16];
+        treeStamps = new int[17];
+        weightStamps = new int[16];
+    }
+
+    /**
+     * append a weight at index {@code size()}
+     * @param weight the weight to append
+     */
+    public void append(long weight) {
+        if (size == weights.length) {
+            grow();
+        }
+        size++;
+        add(size - 1, weight);
+    }
+
+    /**
+     * drop the last weight
+     * @throws IllegalStateException if the tree is empty
+     */
+    public void removeLast() {
+        if (size == 0) {
+            throw new IllegalStateException("empty tree");
+        }
+        set(size - 1, 0);
+        size--;
+    }
+
+    /**
+     * @param index position of the weight
+     * @return the weight at {@code index}
+     */
+    public long get(int index) {
+        return weightStamps[index] == generation ? weights[index] : 0;
+    }
+
+    /**
+     * set the weight at {@code index}
+     * @param index position of the weight
+     * @param weight the new weight
+     */
+    public void set(int index, long weight) {
+        add(index, weight - get(index));
+    }
+
+    /**
+     * set every weight to zero, in O(1)
+     */
+    public void clear() {
+        generation++;
+        total = 0;
+    }
+
+    /**
+     * @return the sum of all weights
+     */
+    public long total() {
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * find the index at which the running sum of weights first exceeds {@code target}
+     * @param target a value in [0, total())
+     * @return the index whose weight range contains {@code target}
+     * @throws IllegalArgumentException if {@code target} is out of range
+     */
+    public int find(long target) {
+        if (target < 0 || target >= total) {
+            throw new IllegalArgumentException("target out of range");
+        }
+        int position = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < tree.length && node(next) <= target) {
+                position = next;
+                target -= node(next);
+            }
+        }
+        return position;
+    }
+
+    private long node(int i) {
+        return treeStamps[i] == generation ? tree[i] : 0;
+    }
+
+    private void add(int index, long delta) {
+        weights[index] = get(index) + delta;
+        weightStamps[index] = generation;
+        total += delta;
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] = node(i) + delta;
+            treeStamps[i] = generation;
+        }
+    }
+
+    private void grow() {
+        long[] oldWeights = weights;
+        int[] oldStamps = weightStamps;
+        weights = new long[oldWeights.length * 2];
+        weightStamps = new int[weights.length];
+        tree = new long[weights.length + 1];
+        treeStamps = new int[tree.length];
+        for (int i = 0; i < size; i++) {
+            if (oldStamps[i] == generation) {
+                weights[i] = oldWeights[i];
+            }
+        }
+        generation = 0;
+        rebuild();
+    }
+
+    private void rebuild() {
+        total = 0;
+        for (int i = 1; i <= size; i++) {
+            tree[i] += weights[i - 1];
+            total += weights[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package flashcards;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of text decks. A compressed deck is a series of gzip members, one per chunk
+ * of cards, so that the chunks are compressed in parallel and the file can still be read by any
+ * gzip tool. Reading decompresses as a stream, so the plain deck never exists in full.
+ */
+final class Gzip {
+
+    /**
+     * file extension of compressed decks; exports to such paths are compressed
+     */
+    static final String EXTENSION = ".gz";
+
+    private static final byte[] MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Gzip() {
+    }
+
+    /**
+     * @return whether the file starts with the gzip magic
+     */
+    static boolean isGzip(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the magic is complete or the file ends
+            }
+            return !buffer.hasRemaining() && ByteBuffer.wrap(MAGIC).equals(buffer.flip());
+        }
+    }
+
+    /**
+     * open a deck for reading, decompressing it on the fly if it is compressed
+     */
+    static ReadableByteChannel open(Path path) throws IOException {
+        boolean compressed = isGzip(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (!compressed) {
+            return channel;
+        }
+        return Channels.newChannel(new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+    }
+
+    /**
+     * @return {@code bytes} as one gzip member
+     */
+    static byte[] compress(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new FastGzipOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            // a byte array stream does not fail
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return an encoder that compresses each chunk of {@code encoder} as a gzip member
+     */
+    static ParallelEncoder.ChunkEncoder compressing(ParallelEncoder.ChunkEncoder encoder) {
+        return (from, to) -> compress(encoder.encode(from, to));
+    }
+
+    /**
+     * decks are mostly short repeated words, which the fastest level compresses nearly as well
+     */
+    private static class FastGzipOutputStream extends GZIPOutputStream {
+        FastGzipOutputStream(ByteArrayOutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
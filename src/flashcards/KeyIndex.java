@@ -0,0 +1,33 @@
+package flashcards;
+
+/**
+ * The cards of a collection by their value of one key property.
+ */
+interface KeyIndex {
+
+    /**
+     * @return the card with this value, null if there is none
+     */
+    Card get(String value);
+
+    /**
+     * @param value the value of {@code card}, already in its slot
+     * @return the card that already has this value, or null if {@code card} was added
+     */
+    Card putIfAbsent(String value, Card card);
+
+    /**
+     * remove the card with this value, which is still in its slot
+     */
+    void remove(String value);
+
+    /**
+     * follow the card with this value from slot {@code from} to slot {@code to}
+     */
+    void moved(String value, int from, int to);
+
+    /**
+     * make room for {@code capacity} values without rehashing
+     */
+    void ensureCapacity(int capacity);
+}
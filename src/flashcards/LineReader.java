@@ -0,0 +1,139 @@
+package flashcards;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a byte channel into UTF-8 lines without regular expressions.
+ * Lines are terminated by {@code \n} or {@code \r\n}; raw lines can be collected
+ * into a {@link Batch} and decoded later, possibly on other threads.
+ */
+class LineReader implements Closeable {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final Batch single = new Batch(1);
+    private boolean eof;
+
+    LineReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * @return the next line, or null at the end of the channel
+     */
+    String readLine() throws IOException {
+        single.clear();
+        if (!readLine(single)) {
+            return null;
+        }
+        return single.get(0);
+    }
+
+    /**
+     * append the raw bytes of the next line to {@code batch}
+     * @return false if the channel has no more lines
+     */
+    boolean readLine(Batch batch) throws IOException {
+        boolean started = false;
+        while (true) {
+            byte[] array = buffer.array();
+            int start = buffer.position();
+            int limit = buffer.limit();
+            for (int i = start; i < limit; i++) {
+                if (array[i] == '\n') {
+                    batch.append(array, start, i - start);
+                    buffer.position(i + 1);
+                    batch.endLine();
+                    return true;
+                }
+            }
+            if (limit > start) {
+                batch.append(array, start, limit - start);
+                started = true;
+            }
+            buffer.clear();
+            if (eof || !fill()) {
+                buffer.flip();
+                if (started) {
+                    batch.endLine();
+                }
+                return started;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * raw lines stored back to back in one byte array
+     */
+    static class Batch {
+        private byte[] data = new byte[1 << 12];
+        private int[] ends;
+        private int length;
+        private int count;
+
+        Batch(int expectedLines) {
+            ends = new int[Math.max(expectedLines, 1)];
+        }
+
+        int size() {
+            return count;
+        }
+
+        void clear() {
+            length = 0;
+            count = 0;
+        }
+
+        /**
+         * decode line {@code i} as UTF-8
+         */
+        String get(int i) {
+            int start = i == 0 ? 0 : ends[i - 1];
+            return new String(data, start, ends[i] - start, StandardCharsets.UTF_8);
+        }
+
+        private void append(byte[] bytes, int offset, int n) {
+            if (length + n > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+            }
+            System.arraycopy(bytes, offset, data, length, n);
+            length += n;
+        }
+
+        private void endLine() {
+            int start = count == 0 ? 0 : ends[count - 1];
+            if (length > start && data[length - 1] == '\r') {
+                length--;
+            }
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            ends[count++] = length;
+        }
+    }
+}
@@ -1,23 +1,287 @@
 package flashcards;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Stack;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps the most recent log entries in a bounded ring buffer, and optionally streams
+ * every entry to a file from a background thread.
+ */
 public class Logger {
-    Stack<String> logs = new Stack<>();
+
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    /**
+     * what the ring buffer does with a new entry when it is full
+     */
+    public enum Overflow {
+        /**
+         * evict the oldest entry, keeping the most recent history
+         */
+        DROP_OLDEST,
+        /**
+         * discard the new entry, keeping the beginning of the session
+         */
+        DROP_NEWEST
+    }
+
+    /**
+     * the text of the entry that stops the writer
+     */
+    private static final String END_OF_STREAM = new String("end of stream");
+
+    private final String[] logs;
+    private final Overflow overflow;
+    private int head;
+    private int count;
+    private long dropped;
+    private long retainedChars;
+
+    private BlockingQueue<Entry> queue;
+    private long sequence;
+    private Thread streamer;
+    private volatile IOException streamFailure;
+    private volatile boolean writerStopped;
+
+    public Logger() {
+        this(DEFAULT_CAPACITY, Overflow.DROP_OLDEST);
+    }
+
+    /**
+     * @param capacity the maximum number of retained entries
+     * @param overflow the policy applied when the ring buffer is full
+     * @throws IllegalArgumentException if {@code capacity} is not positive
+     */
+    public Logger(int capacity, Overflow overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive");
+        }
+        this.logs = new String[capacity];
+        this.overflow = overflow;
+    }
 
     public void log(String log) {
-        logs.add(log);
+        BlockingQueue<Entry> stream;
+        Entry entry = null;
+        synchronized (this) {
+            retain(log);
+            stream = queue;
+            if (stream != null) {
+                // numbered in ring buffer order; the writer restores it when threads queue out of order
+                entry = new Entry(sequence++, log);
+            }
+        }
+        if (stream != null) {
+            enqueue(stream, entry);
+        }
+    }
+
+    private void retain(String log) {
+        if (count == logs.length) {
+            dropped++;
+            if (overflow == Overflow.DROP_OLDEST) {
+                retainedChars += log.length() - logs[head].length();
+                logs[head] = log;
+                head = (head + 1) % logs.length;
+            }
+        } else {
+            logs[(head + count) % logs.length] = log;
+            count++;
+            retainedChars += log.length();
+        }
+    }
+
+    /**
+     * queue an entry for the writer; the stream is lossless, so this waits for the writer to catch up,
+     * but only as long as the writer runs. Never called with the monitor held, which the writer does not need.
+     */
+    private void enqueue(BlockingQueue<Entry> stream, Entry entry) {
+        try {
+            while (!writerStopped) {
+                if (stream.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * write the retained history to a file, oldest entry first
+     * @param path file path
+     * @throws IOException if the path is invalid
+     */
     public void save(String path) throws IOException {
-        File file = new File(path);
-        FileWriter fileWriter = new FileWriter(file);
-        for (String s : logs) {
-            fileWriter.write(s);
+        String[] history = history();
+        try (Writer fileWriter = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            for (String s : history) {
+                fileWriter.write(s);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the retained entries, oldest first
+     */
+    public synchronized String[] history() {
+        String[] history = new String[count];
+        for (int i = 0; i < count; i++) {
+            history[i] = logs[(head + i) % logs.length];
+        }
+        return history;
+    }
+
+    /**
+     * @return the number of entries that have been evicted or discarded by the ring buffer
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of retained entries
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return an estimate of the heap used by the ring buffer and the retained entries, in bytes,
+     * assuming compact one-byte strings and compressed references
+     */
+    public synchronized long memoryEstimate() {
+        return 16L + 4L * logs.length + 40L * count + retainedChars;
+    }
+
+    /**
+     * start streaming every later entry to a file, appending to it
+     * @param path file path
+     * @throws IOException if the file cannot be opened
+     * @throws IllegalStateException if the logger is already streaming
+     */
+    public synchronized void stream(String path) throws IOException {
+        if (queue != null) {
+            throw new IllegalStateException("already streaming");
+        }
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        queue = new ArrayBlockingQueue<>(Math.min(logs.length, 1 << 16));
+        sequence = 0;
+        writerStopped = false;
+        BlockingQueue<Entry> entries = queue;
+        streamer = new Thread(() -> writeLoop(entries, channel), "log-streamer");
+        streamer.setDaemon(true);
+        streamer.start();
+    }
+
+    /**
+     * stop streaming, after every entry logged before has been written, including those
+     * that other threads are still queueing
+     * @throws IOException if writing the stream has failed
+     */
+    public void close() throws IOException {
+        BlockingQueue<Entry> stream;
+        Thread thread;
+        Entry end;
+        synchronized (this) {
+            if (queue == null) {
+                return;
+            }
+            stream = queue;
+            queue = null;
+            thread = streamer;
+            streamer = null;
+            // numbered after every entry logged so far, so the writer reaches it only once they are written
+            end = new Entry(sequence, END_OF_STREAM);
+        }
+        enqueue(stream, end);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (streamFailure != null) {
+            throw streamFailure;
+        }
+    }
+
+    private void writeLoop(BlockingQueue<Entry> entries, FileChannel channel) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        ArrayList<Entry> batch = new ArrayList<>();
+        // entries queued ahead of an earlier one, held until it arrives
+        PriorityQueue<Entry> early = new PriorityQueue<>();
+        long next = 0;
+        try (channel) {
+            while (true) {
+                batch.add(entries.take());
+                entries.drainTo(batch);
+                early.addAll(batch);
+                batch.clear();
+                while (!early.isEmpty() && early.peek().sequence == next) {
+                    String entry = early.poll().text;
+                    next++;
+                    if (entry == END_OF_STREAM) {
+                        write(channel, buffer);
+                        return;
+                    }
+                    CharBuffer chars = CharBuffer.wrap(entry);
+                    while (encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+                        write(channel, buffer);
+                    }
+                    encoder.reset();
+                }
+                // the queue is empty: push what we have to the file
+                write(channel, buffer);
+            }
+        } catch (IOException e) {
+            streamFailure = e;
+        } catch (RuntimeException e) {
+            streamFailure = new IOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // release the sessions waiting to queue; later entries are only kept in the ring buffer
+            writerStopped = true;
+            entries.clear();
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final long sequence;
+        final String text;
+
+        Entry(long sequence, String text) {
+            this.sequence = sequence;
+            this.text = text;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
-        fileWriter.close();
+        buffer.clear();
     }
 }
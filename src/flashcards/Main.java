@@ -1,7 +1,13 @@
 package flashcards;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import static flashcards.CardProperty.*;
@@ -9,110 +15,308 @@ import static flashcards.CardProperty.*;
 public class Main {
 
     // Define some long strings here
-    static String welcome = "Input the action (add, remove, import, export, ask, exit, log, hardest card, reset stats):";
+    static String welcome = "Input the action (add, remove, import, merge, export, ask, exit, log, hardest card, reset stats, stats):";
+    private static final String NO_FILES = "File commands are not available in this session.\n\n";
+
+    /**
+     * the metrics of every session of this process
+     */
+    static final Metrics metrics = new Metrics();
+
+    /**
+     * the background exports of every session of this process
+     */
+    static final ExportQueue exports = new ExportQueue();
 
     public static void main(String[] args) {
 
-        // logger, scanner, cards, parameters
-        Logger logger = new Logger();
+        // console, cards, parameters
         Scanner scanner = new Scanner(System.in);
-        CardCollection cards = new CardCollection(new CardProperty[] {TERM, DEFINITION});
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        Console console = new Console(new Logger(), scanner, out, false);
         HashMap<Parameters, String> parameters = new HashMap<>();
 
         // read parameters
-        if (!readParameters(args, logger, parameters)) {
+        if (!readParameters(args, console, parameters)) {
+            console.flush();
             scanner.close();
             return;
         }
 
+        // bounded log history, optionally streamed to a file
+        Logger logger = console.getLogger();
+        if (!"".equals(parameters.get(Parameters.LOG_CAPACITY))) {
+            logger = new Logger(Integer.parseInt(parameters.get(Parameters.LOG_CAPACITY)),
+                    Logger.Overflow.valueOf(parameters.get(Parameters.LOG_OVERFLOW)));
+        }
+        console = new Console(logger, scanner, out, "true".equals(parameters.get(Parameters.QUIET)));
+        String streamPath = parameters.get(Parameters.LOG_STREAM);
+        if (!"".equals(streamPath)) {
+            try {
+                logger.stream(streamPath);
+            } catch (IOException e) {
+                console.output("illegal path.\n\n");
+                console.flush();
+                scanner.close();
+                return;
+            }
+        }
+
+        // metrics, through JMX and optionally dumped to a file
+        metrics.registerInBackground();
+        String metricsPath = parameters.get(Parameters.METRICS);
+        if (!"".equals(metricsPath)) {
+            metrics.dumpEvery(metricsPath, Long.parseLong(parameters.get(Parameters.METRICS_INTERVAL)));
+        }
+
+        // sampling mode of ask
+        SamplingMode sampling = SamplingMode.UNIFORM;
+        if ("weighted".equals(parameters.get(Parameters.SAMPLING))) {
+            sampling = SamplingMode.WEIGHTED;
+        } else if ("scheduled".equals(parameters.get(Parameters.SAMPLING))) {
+            sampling = SamplingMode.SCHEDULED;
+        }
+
+        // deck file format, detected per file unless given
+        DeckFormat format = null;
+        if (!"".equals(parameters.get(Parameters.FORMAT))) {
+            format = DeckFormat.valueOf(parameters.get(Parameters.FORMAT).toUpperCase());
+        }
+
+        // where the text of the cards is kept; imports keep the storage of the deck they replace
+        StorageMode storage = StorageMode.HEAP;
+        if ("offheap".equals(parameters.get(Parameters.STORAGE))) {
+            storage = StorageMode.OFF_HEAP;
+        } else if ("mapped".equals(parameters.get(Parameters.STORAGE))) {
+            storage = StorageMode.MAPPED;
+        }
+        Cards cards = new CardCollection(new CardProperty[] {TERM, DEFINITION}, 16, storage);
+
         // import at startup
         String importPath = parameters.get(Parameters.IMPORT);
+        boolean imported = false;
         if (!"".equals(importPath)) {
-            CardCollection temp = importRecords(logger, importPath);
+            Cards temp = importRecords(console, importPath, format, storage);
             if (temp != null) {
                 cards = temp;
+                imported = true;
+            }
+        }
+
+        // recover and start the journal
+        boolean serve = !"".equals(parameters.get(Parameters.SERVE));
+        CardJournal journal = null;
+        String journalPath = parameters.get(Parameters.JOURNAL);
+        if (!"".equals(journalPath)) {
+            journal = new CardJournal(journalPath);
+            if (imported && journal.hasSnapshot()) {
+                console.output("Warning: the journal %s has a snapshot, which replaces the imported cards.\n\n",
+                        journalPath);
+            }
+            Cards recovered = recoverJournal(console, journal, cards, serve);
+            if (recovered == null) {
+                console.flush();
+                scanner.close();
+                return;
+            }
+            cards = recovered;
+        } else if (serve) {
+            cards = new ConcurrentCardCollection(cards);
+        }
+        Deck deck = new Deck(cards, journal, serve);
+        metrics.watch(deck, logger);
+
+        // run a command script; without a server the program is then done
+        String batchPath = parameters.get(Parameters.BATCH);
+        if (!"".equals(batchPath)) {
+            try {
+                new BatchRunner(console, deck, format).run(batchPath);
+            } catch (IOException e) {
+                console.output("Batch failed: file not found.\n\n");
+            }
+            if (!serve) {
+                exit(console, deck.cards(), parameters, format, journal);
+                return;
+            }
+        }
+
+        // serve the deck to other sessions over TCP
+        QuizServer server = null;
+        if (serve) {
+            int port = Integer.parseInt(parameters.get(Parameters.SERVE));
+            int sessionLogCapacity = QuizServer.SESSION_LOG_CAPACITY;
+            if (!"".equals(parameters.get(Parameters.LOG_CAPACITY))) {
+                sessionLogCapacity = Integer.parseInt(parameters.get(Parameters.LOG_CAPACITY));
+            }
+            try {
+                server = new QuizServer(port, deck, sampling, format, sessionLogCapacity, logger);
+                server.start();
+                console.output("Serving on port %d.\n\n", server.getPort());
+            } catch (IOException e) {
+                console.output("Server failed: %s\n\n", e.getMessage());
+                console.flush();
+                scanner.close();
+                return;
             }
         }
 
         // main loop
+        session(console, deck, sampling, format, true, new SessionStats());
+        if (server != null) {
+            server.close();
+        }
+        exit(console, deck.cards(), parameters, format, journal);
+    }
+
+    /**
+     * run commands from {@code console} against {@code deck} until the command "exit"
+     * @param console the input and output of the session
+     * @param deck the cards, possibly shared with other sessions
+     * @param sampling sampling mode of ask
+     * @param format deck file format, null to detect it per file
+     * @param files whether the commands that read or write files (import, merge, export, log) are allowed
+     * @param stats the statistics of this session
+     * @throws EndOfInputException if the input ends before "exit"
+     */
+    static void session(Console console, Deck deck, SamplingMode sampling, DeckFormat format, boolean files,
+                        SessionStats stats) {
         while (true) {
 
             // receive command
-            Util.output(logger, "%s\n> ", welcome);
-            String command = Util.getInput(logger, scanner);
-
-            if (command.equals("exit")) {
-                exit(logger, cards, parameters);
-                return;
+            exports.reportFinished(console);
+            console.prompt("%s\n> ", welcome);
+            String command = console.getInput();
+            stats.commands++;
+            Cards cards = deck.cards();
+            long start = System.nanoTime();
+            long waited = console.getInputNanos();
+            try {
+                if (command.equals("exit")) {
+                    return;
+                }
+                if (dispatch(command, console, deck, cards, sampling, format, files, stats)) {
+                    continue;
+                }
+                console.output("Illegal command!\n\n");
+            } finally {
+                metrics.recordCommand(Metrics.Command.of(command),
+                        System.nanoTime() - start - (console.getInputNanos() - waited));
             }
+        }
+    }
 
-            if (command.equals("add")) {
-                add(logger, scanner, cards);
-                continue;
-            }
+    /**
+     * run one command other than "exit", reading its arguments from {@code console}
+     * @param files whether file commands are allowed; if not, they read their arguments and refuse
+     * @return false if there is no such command
+     */
+    static boolean dispatch(String command, Console console, Deck deck, Cards cards,
+                            SamplingMode sampling, DeckFormat format, boolean files, SessionStats stats) {
+        if (command.equals("add")) {
+            add(console, cards);
+            return true;
+        }
 
-            if (command.equals("remove")) {
-                remove(logger, scanner, cards);
-                continue;
-            }
+        if (command.equals("remove")) {
+            remove(console, cards);
+            return true;
+        }
 
-            if (command.equals("ask")) {
-                ask(logger, scanner, cards);
-                continue;
-            }
+        if (command.equals("ask")) {
+            ask(console, cards, sampling, stats);
+            return true;
+        }
 
-            if (command.equals("reset stats")) {
-                resetStats(logger, cards);
-                continue;
-            }
+        if (command.equals("reset stats")) {
+            resetStats(console, cards);
+            return true;
+        }
 
-            if (command.equals("hardest card")) {
-                hardestCards(logger, cards);
-                continue;
-            }
+        if (command.equals("hardest card")) {
+            hardestCards(console, cards);
+            return true;
+        }
 
-            if (command.equals("import")) {
-                Util.output(logger, "File name:\n> ");
-                String filePath = Util.getInput(logger, scanner);
-                CardCollection temp = importRecords(logger, filePath);
-                if (temp != null) {
-                    cards = temp;
+        if (command.equals("import")) {
+            console.prompt("File name:\n> ");
+            String filePath = console.getInput();
+            if (!files) {
+                console.output(NO_FILES);
+                return true;
+            }
+            Cards temp = importRecords(console, filePath, format, cards.getStorage());
+            if (temp != null) {
+                try {
+                    deck.replace(temp);
+                } catch (IOException e) {
+                    console.output("Journal failed: %s\n\n", e.getMessage());
                 }
-                continue;
             }
+            return true;
+        }
 
-            if (command.equals("export")) {
-                Util.output(logger, "File name:\n> ");
-                String filePath = Util.getInput(logger, scanner);
-                export(logger, filePath, cards);
-                continue;
+        if (command.equals("merge")) {
+            console.prompt("File name:\n> ");
+            String filePath = console.getInput();
+            console.prompt("On conflict (skip, overwrite, keep higher failure, rename):\n> ");
+            MergePolicy policy = MergePolicy.of(console.getInput());
+            if (!files) {
+                console.output(NO_FILES);
+                return true;
             }
+            if (policy == null) {
+                console.output("Illegal argument: please enter skip, overwrite, keep higher failure or rename.\n\n");
+                return true;
+            }
+            mergeRecords(console, filePath, cards, format, policy);
+            return true;
+        }
 
-            if (command.equals("log")) {
-                Util.output(logger, "File name:\n> ");
-                String filePath = Util.getInput(logger, scanner);
-                log(logger, filePath);
-                continue;
+        if (command.equals("export")) {
+            console.prompt("File name:\n> ");
+            String filePath = console.getInput();
+            if (!files) {
+                console.output(NO_FILES);
+                return true;
             }
+            export(console, filePath, cards, format);
+            return true;
+        }
 
-            Util.output(logger, "Illegal command!\n\n");
+        if (command.equals("log")) {
+            console.prompt("File name:\n> ");
+            String filePath = console.getInput();
+            if (!files) {
+                console.output(NO_FILES);
+                return true;
+            }
+            log(console, filePath);
+            return true;
+        }
 
+        if (command.equals("stats")) {
+            console.output(metrics.report());
+            return true;
         }
+
+        return false;
     }
 
     /**
      * read args to parameters
      * @param args args to read parameters from
-     * @param logger record log
+     * @param console reports illegal arguments
      * @param parameters Hashmap to pass parameters to
      * @return false if reading failed
      */
-    private static boolean readParameters(String[] args, Logger logger, HashMap<Parameters, String> parameters) {
+    private static boolean readParameters(String[] args, Console console, HashMap<Parameters, String> parameters) {
         for (Parameters p : Parameters.values()) {
             parameters.put(p, "");
         }
+        parameters.put(Parameters.LOG_OVERFLOW, Logger.Overflow.DROP_OLDEST.toString());
+        parameters.put(Parameters.METRICS_INTERVAL, "60");
         if (args.length % 2 == 1) {
-            Util.output(logger, "illegal arguments (odd numbers of arguments).");
+            console.output("illegal arguments (odd numbers of arguments).");
             return false;
         }
         for (int i = 0; i < args.length; i+=2) {
@@ -126,208 +330,392 @@ public class Main {
                 case "-log":
                     parameters.put(Parameters.LOG, args[i + 1]);
                     break;
+                case "-sampling":
+                    if (!"uniform".equals(args[i + 1]) && !"weighted".equals(args[i + 1])
+                            && !"scheduled".equals(args[i + 1])) {
+                        console.output("illegal arguments (sampling should be uniform, weighted or scheduled).");
+                        return false;
+                    }
+                    parameters.put(Parameters.SAMPLING, args[i + 1]);
+                    break;
+                case "-logcapacity":
+                    try {
+                        if (Integer.parseInt(args[i + 1]) <= 0) {
+                            throw new IllegalArgumentException("Negative or zero capacity.");
+                        }
+                    } catch (IllegalArgumentException e) {
+                        console.output("illegal arguments (log capacity should be a positive integer).");
+                        return false;
+                    }
+                    parameters.put(Parameters.LOG_CAPACITY, args[i + 1]);
+                    break;
+                case "-logoverflow":
+                    if (!"drop-oldest".equals(args[i + 1]) && !"drop-newest".equals(args[i + 1])) {
+                        console.output("illegal arguments (log overflow should be drop-oldest or drop-newest).");
+                        return false;
+                    }
+                    parameters.put(Parameters.LOG_OVERFLOW, args[i + 1].replace('-', '_').toUpperCase());
+                    break;
+                case "-logstream":
+                    parameters.put(Parameters.LOG_STREAM, args[i + 1]);
+                    break;
+                case "-quiet":
+                    if (!"true".equals(args[i + 1]) && !"false".equals(args[i + 1])) {
+                        console.output("illegal arguments (quiet should be true or false).");
+                        return false;
+                    }
+                    parameters.put(Parameters.QUIET, args[i + 1]);
+                    break;
+                case "-serve":
+                    try {
+                        int port = Integer.parseInt(args[i + 1]);
+                        if (port < 0 || port > 65535) {
+                            throw new IllegalArgumentException("Port out of range.");
+                        }
+                    } catch (IllegalArgumentException e) {
+                        console.output("illegal arguments (serve should be a port number).");
+                        return false;
+                    }
+                    parameters.put(Parameters.SERVE, args[i + 1]);
+                    break;
+                case "-metrics":
+                    parameters.put(Parameters.METRICS, args[i + 1]);
+                    break;
+                case "-metricsinterval":
+                    try {
+                        if (Long.parseLong(args[i + 1]) <= 0) {
+                            throw new IllegalArgumentException("Negative or zero interval.");
+                        }
+                    } catch (IllegalArgumentException e) {
+                        console.output("illegal arguments (metrics interval should be a positive number of seconds).");
+                        return false;
+                    }
+                    parameters.put(Parameters.METRICS_INTERVAL, args[i + 1]);
+                    break;
+                case "-batch":
+                    parameters.put(Parameters.BATCH, args[i + 1]);
+                    break;
+                case "-journal":
+                    parameters.put(Parameters.JOURNAL, args[i + 1]);
+                    break;
+                case "-format":
+                    if (!"text".equals(args[i + 1]) && !"binary".equals(args[i + 1])) {
+                        console.output("illegal arguments (format should be text or binary).");
+                        return false;
+                    }
+                    parameters.put(Parameters.FORMAT, args[i + 1]);
+                    break;
+                case "-storage":
+                    if (!"heap".equals(args[i + 1]) && !"offheap".equals(args[i + 1])
+                            && !"mapped".equals(args[i + 1])) {
+                        console.output("illegal arguments (storage should be heap, offheap or mapped).");
+                        return false;
+                    }
+                    parameters.put(Parameters.STORAGE, args[i + 1]);
+                    break;
                 default:
-                    Util.output(logger, "illegal arguments (wrong flags).");
+                    console.output("illegal arguments (wrong flags).");
                     return false;
             }
         }
+        // a mapped deck is read in card by card, which rules out every use that reads the whole deck
+        if ("mapped".equals(parameters.get(Parameters.STORAGE))
+                && (!"".equals(parameters.get(Parameters.SERVE)) || !"".equals(parameters.get(Parameters.JOURNAL)))) {
+            console.output("illegal arguments (mapped storage works without serve or journal).");
+            return false;
+        }
         return true;
     }
 
-    private static void exit(Logger logger, CardCollection cards, HashMap<Parameters, String> parameters) {
-        Util.output(logger, "Bye bye!\n\n");
-        // save
+    private static void exit(Console console, Cards cards, HashMap<Parameters, String> parameters,
+                             DeckFormat format, CardJournal journal) {
+        console.output("Bye bye!\n\n");
+        // save, and wait for the exports still running
         String exportPath = parameters.get(Parameters.EXPORT);
         if (!"".equals(exportPath)) {
-            export(logger, exportPath, cards);
+            export(console, exportPath, cards, format);
         }
+        exports.awaitAll(console);
         // log
         String logPath = parameters.get(Parameters.LOG);
         if (!"".equals(logPath)) {
-            log(logger, logPath);
+            log(console, logPath);
+        }
+        // last metrics dump
+        try {
+            metrics.close();
+        } catch (IOException e) {
+            console.output("Metrics dump failed: %s\n\n", e.getMessage());
+        }
+        // finish the log stream
+        try {
+            console.getLogger().close();
+        } catch (IOException e) {
+            console.output("Log stream failed: %s\n\n", e.getMessage());
         }
+        // flush the journal
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                console.output("Journal failed: %s\n\n", e.getMessage());
+            }
+        }
+        console.flush();
+    }
+
+    private static Cards recoverJournal(Console console, CardJournal journal, Cards cards,
+                                                 boolean concurrent) {
+        try {
+            Cards recovered = journal.recover(cards);
+            if (concurrent) {
+                recovered = new ConcurrentCardCollection(recovered);
+            }
+            journal.attach(recovered);
+            console.output("%d cards have been recovered from the journal.\n\n", recovered.getSize());
+            return recovered;
+        } catch (IOException e) {
+            console.output("Journal failed: %s\n\n", e.getMessage());
+        } catch (ImportException e) {
+            console.output("Journal failed: corrupted snapshot.\n\n");
+        }
+        return null;
     }
 
-    private static void add(Logger logger, Scanner scanner, CardCollection cards) {
+    private static void add(Console console, Cards cards) {
         Card card = new Card();
 
-        Util.output(logger, "The card:\n> ");
-        String term = Util.getInput(logger, scanner);
+        console.prompt("The card:\n> ");
+        String term = console.getInput();
         if (cards.contains(TERM, term)) {
-            Util.output(logger, "The card \"%s\" already exists.\n\n", term);
+            console.output("The card \"%s\" already exists.\n\n", term);
             return;
         }
 
-        Util.output(logger, "The definition of card:\n> ");
-        String definition = Util.getInput(logger, scanner);
+        console.prompt("The definition of card:\n> ");
+        String definition = console.getInput();
         if (cards.contains(DEFINITION, definition)) {
-            Util.output(logger, "The definition \"%s\" already exists.\n\n", definition);
+            console.output("The definition \"%s\" already exists.\n\n", definition);
             return;
         }
 
         card.setProperty(TERM, term);
         card.setProperty(DEFINITION, definition);
-        cards.add(card);
-        Util.output(logger, "The pair (\"%s\":\"%s\") has been added.\n\n", term, definition);
+        try {
+            cards.add(card);
+        } catch (IllegalArgumentException e) {
+            // added by another session meanwhile
+            console.output("The card \"%s\" already exists.\n\n", term);
+            return;
+        }
+        console.output("The pair (\"%s\":\"%s\") has been added.\n\n", term, definition);
     }
 
-    private static void remove(Logger logger, Scanner scanner, CardCollection cards) {
-        Util.output(logger, "The card:\n> ");
-        String term = Util.getInput(logger, scanner);
+    private static void remove(Console console, Cards cards) {
+        console.prompt("The card:\n> ");
+        String term = console.getInput();
         if (cards.getSize() == 0 || !cards.contains(TERM, term)) {
-            Util.output(logger, "Can't remove \"%s\": %s\n\n", term, "there is no such card.");
+            console.output("Can't remove \"%s\": %s\n\n", term, "there is no such card.");
         } else {
-            cards.remove(TERM, term);
-            Util.output(logger, "The card has been removed.\n\n");
+            try {
+                cards.remove(TERM, term);
+            } catch (NoSuchElementException e) {
+                // removed by another session meanwhile
+                console.output("Can't remove \"%s\": %s\n\n", term, "there is no such card.");
+                return;
+            }
+            console.output("The card has been removed.\n\n");
         }
     }
 
-    private static void ask(Logger logger, Scanner scanner, CardCollection cards) {
+    private static void ask(Console console, Cards cards, SamplingMode sampling, SessionStats stats) {
         if (cards.getSize() == 0) {
-            Util.output(logger, "There is no card to ask.\n\n");
+            console.output("There is no card to ask.\n\n");
             return;
         }
 
-        Util.output(logger, "How many times to ask?\n> ");
+        console.prompt("How many times to ask?\n> ");
         int askTimes;
         try {
-            askTimes = Integer.parseInt(Util.getInput(logger, scanner));
+            askTimes = Integer.parseInt(console.getInput());
             if (askTimes <= 0) {
                 throw new IllegalArgumentException("Negative or zero times.");
             }
         } catch (Exception e) {
-            Util.output(logger, "Illegal argument: please enter a positive integer.\n\n");
+            console.output("Illegal argument: please enter a positive integer.\n\n");
             return;
         }
 
         for (int i = 0; i < askTimes; i++) {
 
-            Card randomCard = cards.randomCard();
+            Card randomCard;
+            try {
+                randomCard = cards.sample(sampling);
+            } catch (NoSuchElementException e) {
+                // another session has removed the last cards meanwhile
+                console.output("There is no card to ask.\n\n");
+                return;
+            }
             String term = randomCard.getProperty(TERM);
             String definition = randomCard.getProperty(DEFINITION);
 
-            Util.output(logger, String.format("Print the definition of \"%s\":\n> ", term));
-            String answer = Util.getInput(logger, scanner);
+            console.prompt("Print the definition of \"%s\":\n> ", term);
+            String answer = console.getInput();
+            stats.asked++;
+            if (sampling == SamplingMode.SCHEDULED) {
+                try {
+                    cards.review(randomCard, answer.equalsIgnoreCase(definition));
+                } catch (IllegalArgumentException e) {
+                    // removed by another session while being asked
+                }
+            }
 
             if (answer.equalsIgnoreCase(definition)) {
-                Util.output(logger, "Correct answer.\n");
+                console.output("Correct answer.\n");
             } else {
-                int failureTimes = Util.toInt(randomCard.getProperty(FAILURE));
-                randomCard.setProperty(FAILURE, Integer.toString(failureTimes + 1));
+                stats.wrong++;
                 try {
-                    String otherCard = cards.getCard(DEFINITION, answer).getProperty(TERM);
-                    Util.output(logger, "Wrong answer. The correct one is \"%s\", you've just written the definition of \"%s\".\n", definition, otherCard);
-                } catch (NoSuchElementException e) {
-                    Util.output(logger, "Wrong answer. The correct one is \"%s\".\n", definition);
+                    cards.fail(randomCard);
+                } catch (IllegalArgumentException e) {
+                    // removed by another session while being asked
+                }
+                AnswerIndex answers = cards.answerIndex(DEFINITION);
+                Card otherCard = answers.find(answer);
+                if (otherCard != null && otherCard != randomCard) {
+                    console.output("Wrong answer. The correct one is \"%s\", you've just written the definition of \"%s\".\n", definition, otherCard.getProperty(TERM));
+                } else {
+                    Card nearCard = answers.nearest(answer, nearDistance(answer));
+                    if (nearCard != null && nearCard != randomCard) {
+                        console.output("Wrong answer. The correct one is \"%s\", did you mean the definition of \"%s\"?\n", definition, nearCard.getProperty(TERM));
+                    } else {
+                        console.output("Wrong answer. The correct one is \"%s\".\n", definition);
+                    }
                 }
             }
         }
-        Util.output(logger, "\n");
+        console.output("\n");
     }
 
-    private static void resetStats(Logger logger, CardCollection cards) {
-        for (Card card : cards) {
-            card.setProperty(FAILURE, "");
-        }
-        Util.output(logger, "Card statistics has been reset.\n\n");
+    /**
+     * the largest edit distance at which a wrong answer is taken for a typo of another definition
+     */
+    private static int nearDistance(String answer) {
+        return Math.max(1, Math.min(3, answer.length() / 4));
     }
 
-    private static void hardestCards(Logger logger, CardCollection cards) {
-        int maxFailureTimes = 0;
-        int failedCardCount = 0;
-        for (Card card : cards) {
-            int currentFailure = Util.toInt(card.getProperty(FAILURE));
-            if (currentFailure > maxFailureTimes) {
-                maxFailureTimes = currentFailure;
-                failedCardCount = 0;
-            }
-            if (currentFailure == maxFailureTimes && maxFailureTimes > 0) {
-                failedCardCount++;
-            }
-        }
-        if (maxFailureTimes == 0) {
-            Util.output(logger, "There are no cards with errors.\n\n");
+    private static void resetStats(Console console, Cards cards) {
+        cards.resetStats();
+        console.output("Card statistics has been reset.\n\n");
+    }
+
+    static void hardestCards(Console console, Cards cards) {
+        List<Card> hardest = cards.hardestCards();
+        if (hardest.isEmpty()) {
+            console.output("There are no cards with errors.\n\n");
         } else {
-            if (failedCardCount == 1) {
-                Util.output(logger, "The hardest card is ");
+            if (hardest.size() == 1) {
+                console.output("The hardest card is ");
             } else {
-                Util.output(logger, "The hardest cards are ");
+                console.output("The hardest cards are ");
             }
             boolean firstPrint = true;
-            for (Card card : cards) {
-                if (Util.toInt(card.getProperty(FAILURE)) == maxFailureTimes) {
-                    if (firstPrint) {
-                        Util.output(logger, "\"%s\"", card.getProperty(TERM));
-                        firstPrint = false;
-                    } else {
-                        Util.output(logger, ", \"%s\"", card.getProperty(TERM));
-                    }
+            for (Card card : hardest) {
+                if (firstPrint) {
+                    console.output("\"%s\"", card.getProperty(TERM));
+                    firstPrint = false;
+                } else {
+                    console.output(", \"%s\"", card.getProperty(TERM));
                 }
             }
-            Util.output(logger, ". You have %d errors answering them.\n\n", maxFailureTimes);
+            console.output(". You have %d errors answering them.\n\n", cards.maxFailure());
         }
     }
 
-    private static CardCollection importRecords(Logger logger, String path) {
-        CardCollection cards = null;
+    private static Cards importRecords(Console console, String path, DeckFormat format,
+                                                StorageMode storage) {
+        Cards cards = null;
         try {
-            cards = CardCollection.importCards(path);
-            Util.output(logger, "%d cards have been loaded.\n\n", cards.getSize());
+            if (format == null) {
+                format = DeckFormat.detect(path);
+            }
+            long start = System.nanoTime();
+            cards = format.read(path, storage);
+            metrics.recordImport(Files.size(Paths.get(path)), cards.getSize(), System.nanoTime() - start);
+            console.output("%d cards have been loaded.\n\n", cards.getSize());
         } catch (IOException e) {
-            Util.output(logger, "Import failed: file not found.\n\n");
+            console.output("Import failed: file not found.\n\n");
         } catch (ImportException e1) {
-            Util.output(logger, "Import failed: corrupted import file.\n\n");
+            console.output("Import failed: corrupted import file.\n\n");
         }
         return cards;
     }
 
-    private static void export(Logger logger, String path, CardCollection cards) {
+    private static void mergeRecords(Console console, String path, Cards cards, DeckFormat format,
+                                     MergePolicy policy) {
         try {
-            int saved = cards.exportCards(path);
-            Util.output(logger, "%d cards have been saved.\n\n", saved);
+            if (format == null) {
+                format = DeckFormat.detect(path);
+            }
+            long start = System.nanoTime();
+            MergeReport report = format.merge(path, cards, policy);
+            metrics.recordImport(Files.size(Paths.get(path)), report.total(), System.nanoTime() - start);
+            console.output("%s\n\n", report.summary());
         } catch (IOException e) {
-            Util.output(logger, "illegal path.\n\n");
+            console.output("Merge failed: file not found.\n\n");
+        } catch (ImportException e1) {
+            console.output("Merge failed: corrupted import file.\n\n");
         }
     }
 
-    private static void log(Logger logger, String filePath) {
+    /**
+     * export {@code cards}; a large collection is exported in the background from a snapshot,
+     * and the outcome is reported before a later prompt
+     */
+    private static void export(Console console, String path, Cards cards, DeckFormat format) {
+        if (exports.inBackground(cards)) {
+            Cards snapshot = cards.snapshot();
+            exports.submit(console, snapshot, path, format, metrics);
+            console.output("Exporting %d cards in the background.\n\n", snapshot.getSize());
+            return;
+        }
         try {
-            logger.save(filePath);
-            Util.output(logger, "The log has been saved.\n\n");
+            if (format == null) {
+                format = DeckFormat.forPath(path);
+            }
+            long start = System.nanoTime();
+            int saved = format.write(cards, path);
+            metrics.recordExport(Files.size(Paths.get(path)), saved, System.nanoTime() - start);
+            console.output("%d cards have been saved.\n\n", saved);
         } catch (IOException e) {
-            Util.output(logger, "illegal path.\n\n");
+            console.output("illegal path.\n\n");
+        }
+    }
+
+    private static void log(Console console, String filePath) {
+        try {
+            console.getLogger().save(filePath);
+            console.output("The log has been saved.\n\n");
+        } catch (IOException e) {
+            console.output("illegal path.\n\n");
         }
     }
 
     private enum Parameters{
         IMPORT,
         EXPORT,
-        LOG
-    }
-
-    /**
-     * Utility functions for printing output, receiving input, logging, and for converting data
-     */
-    private static class Util {
-
-        private static void output(Logger logger, String format, Object ... args) {
-            System.out.printf(format, args);
-            logger.log(String.format(format, args));
-        }
-
-        private static String getInput(Logger logger, Scanner scanner) {
-            String input = scanner.nextLine();
-            logger.log(String.format("%s\n", input));
-            return input;
-        }
-
-        private static int toInt(String s) {
-            if (s.equals("")) {
-                return 0;
-            }
-            return Integer.parseInt(s);
-        }
-
+        LOG,
+        SAMPLING,
+        FORMAT,
+        JOURNAL,
+        LOG_CAPACITY,
+        LOG_OVERFLOW,
+        LOG_STREAM,
+        QUIET,
+        SERVE,
+        BATCH,
+        METRICS,
+        METRICS_INTERVAL,
+        STORAGE
     }
 
 }
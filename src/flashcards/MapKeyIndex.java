@@ -0,0 +1,48 @@
+package flashcards;
+
+import java.util.HashMap;
+
+/**
+ * A {@link KeyIndex} backed by a {@code HashMap} of the cards.
+ */
+class MapKeyIndex implements KeyIndex {
+
+    private HashMap<String, Card> cards;
+    private int capacity;
+
+    MapKeyIndex(int expectedSize) {
+        cards = new HashMap<>((int) (expectedSize / 0.75f) + 1);
+        capacity = expectedSize;
+    }
+
+    @Override
+    public Card get(String value) {
+        return cards.get(value);
+    }
+
+    @Override
+    public Card putIfAbsent(String value, Card card) {
+        return cards.putIfAbsent(value, card);
+    }
+
+    @Override
+    public void remove(String value) {
+        cards.remove(value);
+    }
+
+    @Override
+    public void moved(String value, int from, int to) {
+        // the map holds the cards, not their slots
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.capacity) {
+            // one rehash into a table of the final size instead of one per doubling
+            HashMap<String, Card> resized = new HashMap<>((int) (capacity / 0.75f) + 1);
+            resized.putAll(cards);
+            cards = resized;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to a whole file through memory-mapped pages, so that files larger than 2 GB
+ * can be read at any position. Mapping only reserves address space; the operating system
+ * reads a page in when it is first touched and may drop it again under memory pressure.
+ * Ints and longs must be aligned to their size, so that they never straddle two pages.
+ * Reads are absolute and may run on several threads.
+ */
+class MappedPages {
+
+    private static final int PAGE_SHIFT = 26;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    private final MappedByteBuffer[] pages;
+    private final long size;
+
+    /**
+     * map {@code size} bytes of a file; the channel may be closed afterwards
+     * @param mode READ_ONLY, or READ_WRITE to fill a new file of that size
+     */
+    MappedPages(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        this.size = size;
+        pages = new MappedByteBuffer[(int) ((size + PAGE_MASK) >>> PAGE_SHIFT)];
+        for (int i = 0; i < pages.length; i++) {
+            long start = (long) i << PAGE_SHIFT;
+            pages[i] = channel.map(mode, start, Math.min(size - start, 1L << PAGE_SHIFT));
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte get(long position) {
+        return pages[(int) (position >>> PAGE_SHIFT)].get((int) (position & PAGE_MASK));
+    }
+
+    /**
+     * copy {@code length} bytes from {@code position} on, across pages if need be
+     */
+    void get(long position, byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            int inPage = (int) (position & PAGE_MASK);
+            int n = Math.min(length, (1 << PAGE_SHIFT) - inPage);
+            pages[(int) (position >>> PAGE_SHIFT)].get(inPage, bytes, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    int getInt(long position) {
+        return pages[(int) (position >>> PAGE_SHIFT)].getInt((int) (position & PAGE_MASK));
+    }
+
+    long getLong(long position) {
+        return pages[(int) (position >>> PAGE_SHIFT)].getLong((int) (position & PAGE_MASK));
+    }
+
+    void putInt(long position, int value) {
+        pages[(int) (position >>> PAGE_SHIFT)].putInt((int) (position & PAGE_MASK), value);
+    }
+
+    void putLong(long position, long value) {
+        pages[(int) (position >>> PAGE_SHIFT)].putLong((int) (position & PAGE_MASK), value);
+    }
+
+    /**
+     * write the changes of a READ_WRITE mapping to the file
+     */
+    void force() {
+        for (MappedByteBuffer page : pages) {
+            page.force();
+        }
+    }
+}
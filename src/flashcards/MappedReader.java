@@ -0,0 +1,77 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sequential reader over a memory-mapped region of a file.
+ * The file is mapped in windows so that files larger than 2 GB can be read.
+ */
+class MappedReader {
+
+    private static final int WINDOW = 1 << 26;
+
+    private final FileChannel channel;
+    private final long end;
+    private long windowStart;
+    private MappedByteBuffer window;
+    private byte[] bytes = new byte[256];
+
+    /**
+     * @param channel the file to read
+     * @param position where reading starts
+     * @param end where the region to read ends
+     */
+    MappedReader(FileChannel channel, long position, long end) throws IOException {
+        this.channel = channel;
+        this.end = end;
+        map(position, 0);
+    }
+
+    byte getByte() throws IOException {
+        require(1);
+        return window.get();
+    }
+
+    int getInt() throws IOException {
+        require(4);
+        return window.getInt();
+    }
+
+    /**
+     * read an int length followed by that many bytes of UTF-8
+     */
+    String getString() throws IOException {
+        int length = getInt();
+        if (length < 0) {
+            throw new IOException("negative string length");
+        }
+        require(length);
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        window.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    long position() {
+        return windowStart + window.position();
+    }
+
+    private void require(int n) throws IOException {
+        if (window.remaining() < n) {
+            map(position(), n);
+        }
+    }
+
+    private void map(long position, int required) throws IOException {
+        long size = Math.min(end - position, Math.max(WINDOW, required));
+        if (size < required) {
+            throw new IOException("unexpected end of file");
+        }
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+}
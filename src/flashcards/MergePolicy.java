@@ -0,0 +1,47 @@
+package flashcards;
+
+/**
+ * What a merge-import does with a card whose term or definition is already taken.
+ */
+public enum MergePolicy {
+    /**
+     * keep the existing cards and drop the imported one
+     */
+    SKIP("skip"),
+    /**
+     * remove the existing cards and add the imported one
+     */
+    OVERWRITE("overwrite"),
+    /**
+     * overwrite only if the imported card has more failures than each existing one
+     */
+    KEEP_HIGHER_FAILURE("keep higher failure"),
+    /**
+     * keep the existing cards and add the imported one with its taken values numbered, e.g. "cat (2)"
+     */
+    RENAME("rename");
+
+    private final String name;
+
+    MergePolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param input a policy as typed
+     * @return the policy, null if there is no such policy
+     */
+    public static MergePolicy of(String input) {
+        for (MergePolicy policy : values()) {
+            if (policy.name.equals(input)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,30 @@
+package flashcards;
+
+/**
+ * Counts of the cards of a merge-import, by what happened to them.
+ */
+public class MergeReport {
+
+    /**
+     * added without any conflict
+     */
+    int merged;
+    int renamed;
+    int overwritten;
+    int skipped;
+
+    /**
+     * @return the number of cards read from the file
+     */
+    public int total() {
+        return merged + renamed + overwritten + skipped;
+    }
+
+    /**
+     * @return a one-line report of the merge
+     */
+    public String summary() {
+        return String.format("%d cards merged, %d renamed, %d overwritten, %d skipped.",
+                merged, renamed, overwritten, skipped);
+    }
+}
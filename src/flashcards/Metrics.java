@@ -0,0 +1,323 @@
+package flashcards;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the commands of every session, the throughput of imports
+ * and exports, and gauges of the collection size, the memory of an off-heap deck and of the log.
+ * Recording is lock-free and allocates nothing. The time of a command excludes the time spent
+ * waiting for the user's input.
+ */
+public class Metrics implements MetricsMXBean {
+
+    /**
+     * the commands of {@link Main#session}
+     */
+    public enum Command {
+        ADD("add"),
+        REMOVE("remove"),
+        IMPORT("import"),
+        MERGE("merge"),
+        EXPORT("export"),
+        ASK("ask"),
+        EXIT("exit"),
+        LOG("log"),
+        HARDEST_CARD("hardest card"),
+        RESET_STATS("reset stats"),
+        STATS("stats"),
+        ILLEGAL("illegal");
+
+        private static final HashMap<String, Command> BY_NAME = new HashMap<>();
+
+        static {
+            for (Command command : values()) {
+                BY_NAME.put(command.name, command);
+            }
+            BY_NAME.remove(ILLEGAL.name);
+        }
+
+        private final String name;
+
+        Command(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param input a command as typed
+         * @return the command, ILLEGAL if there is no such command
+         */
+        public static Command of(String input) {
+            return BY_NAME.getOrDefault(input, ILLEGAL);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * files, cards, bytes and time of imports or exports
+     */
+    private static class Transfer {
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong cards = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+
+        void record(long bytes, long cards, long nanos) {
+            this.files.incrementAndGet();
+            this.cards.addAndGet(cards);
+            this.bytes.addAndGet(bytes);
+            this.nanos.addAndGet(nanos);
+        }
+
+        double cardsPerSecond() {
+            long time = nanos.get();
+            return time == 0 ? 0 : cards.get() * 1e9 / time;
+        }
+
+        double bytesPerSecond() {
+            long time = nanos.get();
+            return time == 0 ? 0 : bytes.get() * 1e9 / time;
+        }
+    }
+
+    private final EnumMap<Command, LatencyHistogram> commands = new EnumMap<>(Command.class);
+    private final Transfer imports = new Transfer();
+    private final Transfer exports = new Transfer();
+
+    private volatile Deck deck;
+    private volatile Logger logger;
+    private ScheduledExecutorService dumper;
+    private Path dumpPath;
+
+    public Metrics() {
+        for (Command command : Command.values()) {
+            commands.put(command, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @param command the command
+     * @param nanos the time it took, without waiting for input
+     */
+    public void recordCommand(Command command, long nanos) {
+        commands.get(command).record(nanos);
+    }
+
+    public void recordImport(long bytes, long cards, long nanos) {
+        imports.record(bytes, cards, nanos);
+    }
+
+    public void recordExport(long bytes, long cards, long nanos) {
+        exports.record(bytes, cards, nanos);
+    }
+
+    /**
+     * @return the histogram of a command
+     */
+    public LatencyHistogram getHistogram(Command command) {
+        return commands.get(command);
+    }
+
+    /**
+     * set the sources of the gauges
+     * @param deck the cards whose size is reported
+     * @param logger the log whose memory is reported
+     */
+    void watch(Deck deck, Logger logger) {
+        this.deck = deck;
+        this.logger = logger;
+    }
+
+    /**
+     * register this object with the platform MBean server as {@code flashcards:type=Metrics}
+     * @throws JMException if it cannot be registered, e.g. because another instance is
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("flashcards:type=Metrics"));
+    }
+
+    /**
+     * {@code register} on a daemon thread: starting the platform MBean server takes longer
+     * than starting the program, and nothing waits for it
+     */
+    public void registerInBackground() {
+        Thread registrar = new Thread(() -> {
+            try {
+                register();
+            } catch (JMException e) {
+                // the metrics remain available through the stats command
+            }
+        }, "metrics-jmx");
+        registrar.setDaemon(true);
+        registrar.start();
+    }
+
+    /**
+     * write the report to a file every {@code seconds}, and once more on {@code close}
+     * @param path the file, replaced atomically by every dump
+     * @param seconds the period
+     */
+    public synchronized void dumpEvery(String path, long seconds) {
+        dumpPath = Paths.get(path);
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(this::dumpQuietly, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * stop the periodic dump after a last one
+     * @throws IOException if the last dump fails
+     */
+    public synchronized void close() throws IOException {
+        if (dumper == null) {
+            return;
+        }
+        dumper.shutdownNow();
+        dumper = null;
+        dump();
+    }
+
+    private void dumpQuietly() {
+        try {
+            dump();
+        } catch (IOException e) {
+            // try again at the next period
+        }
+    }
+
+    private void dump() throws IOException {
+        Path temp = Paths.get(dumpPath + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(report());
+        }
+        Files.move(temp, dumpPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder("Commands:\n");
+        for (Map.Entry<Command, LatencyHistogram> entry : commands.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format("  %-13s %8d calls, mean %8d us, p50 %8d us, p99 %8d us, max %8d us\n",
+                    entry.getKey(), histogram.getCount(), histogram.getMeanNanos() / 1000,
+                    histogram.getQuantileNanos(0.5) / 1000, histogram.getQuantileNanos(0.99) / 1000,
+                    histogram.getMaxNanos() / 1000));
+        }
+        appendTransfer(report, "Import", imports);
+        appendTransfer(report, "Export", exports);
+        report.append(String.format("Cards: %d, %d KB of text off the heap\n", getCollectionSize(),
+                getOffHeapBytes() / 1024));
+        Logger log = logger;
+        if (log != null) {
+            report.append(String.format("Log: %d entries, about %d KB\n", log.size(), log.memoryEstimate() / 1024));
+        }
+        return report.append('\n').toString();
+    }
+
+    private static void appendTransfer(StringBuilder report, String name, Transfer transfer) {
+        report.append(String.format("%s: %d files, %d cards, %d bytes, %.0f cards/s, %.1f MB/s\n",
+                name, transfer.files.get(), transfer.cards.get(), transfer.bytes.get(),
+                transfer.cardsPerSecond(), transfer.bytesPerSecond() / (1 << 20)));
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<Command, LatencyHistogram> entry : commands.entrySet()) {
+            counts.put(entry.getKey().toString(), entry.getValue().getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getCommandMeanMicros() {
+        Map<String, Long> means = new LinkedHashMap<>();
+        for (Map.Entry<Command, LatencyHistogram> entry : commands.entrySet()) {
+            means.put(entry.getKey().toString(), entry.getValue().getMeanNanos() / 1000);
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Long> getCommandP99Micros() {
+        Map<String, Long> quantiles = new LinkedHashMap<>();
+        for (Map.Entry<Command, LatencyHistogram> entry : commands.entrySet()) {
+            quantiles.put(entry.getKey().toString(), entry.getValue().getQuantileNanos(0.99) / 1000);
+        }
+        return quantiles;
+    }
+
+    @Override
+    public long getImportedCards() {
+        return imports.cards.get();
+    }
+
+    @Override
+    public long getImportedBytes() {
+        return imports.bytes.get();
+    }
+
+    @Override
+    public double getImportCardsPerSecond() {
+        return imports.cardsPerSecond();
+    }
+
+    @Override
+    public long getExportedCards() {
+        return exports.cards.get();
+    }
+
+    @Override
+    public long getExportedBytes() {
+        return exports.bytes.get();
+    }
+
+    @Override
+    public double getExportCardsPerSecond() {
+        return exports.cardsPerSecond();
+    }
+
+    @Override
+    public int getCollectionSize() {
+        Deck watched = deck;
+        return watched == null ? 0 : watched.cards().getSize();
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        Deck watched = deck;
+        return watched == null ? 0 : watched.cards().offHeapBytes();
+    }
+
+    @Override
+    public long getLoggerBytes() {
+        Logger log = logger;
+        return log == null ? 0 : log.memoryEstimate();
+    }
+}
@@ -0,0 +1,39 @@
+package flashcards;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link Metrics}, registered as {@code flashcards:type=Metrics}.
+ * Durations are in microseconds.
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandMeanMicros();
+
+    Map<String, Long> getCommandP99Micros();
+
+    long getImportedCards();
+
+    long getImportedBytes();
+
+    double getImportCardsPerSecond();
+
+    long getExportedCards();
+
+    long getExportedBytes();
+
+    double getExportCardsPerSecond();
+
+    int getCollectionSize();
+
+    long getOffHeapBytes();
+
+    long getLoggerBytes();
+
+    /**
+     * @return the report printed by the {@code stats} command
+     */
+    String report();
+}
@@ -0,0 +1,875 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link Cards} over a text deck that stays in its file, see {@link DeckIndex}.
+ * <p>
+ * A card of the file is read in when it is first found or drawn, and kept in a bounded cache
+ * of the least recently used cards. Cards changed in the session are kept apart and never evicted,
+ * removals are marked in a bit set, and added cards live in an ordinary collection on the heap,
+ * so memory grows with the cards a session touches rather than with the deck. A card whose key
+ * changes moves to the added cards.
+ * <p>
+ * Uniform draws and lookups by key take O(1). Weighted and scheduled draws and the queries by
+ * failure count ({@code hardestCards}, {@code maxFailure}) read the failures and the due order
+ * that the index records for the file, merged with the changed and added cards, and read in
+ * only the cards they return. Lookups by non-key property, iteration and export scan the file
+ * in O(n). The answer index finds exact answers by key in the whole deck, and near answers
+ * among the cached cards.
+ * Not thread-safe.
+ */
+public class PagedCardCollection implements Cards {
+
+    /**
+     * the number of unchanged cards of the file kept in memory
+     */
+    static final int CACHE_CARDS = 1 << 14;
+
+    private final DeckIndex index;
+    private final CardProperty[] keys;
+    private final CardCollection added;
+    private final BitSet removed;
+    private int removedCount;
+    private final HashMap<Integer, Card> changed;
+    /**
+     * the changed cards of the file, by their order in {@code changedCards}, so that they can be
+     * drawn by weight and by due time and found by failure count
+     */
+    private final ArrayList<Card> changedCards = new ArrayList<>();
+    private final HashMap<Integer, Integer> changedSlots = new HashMap<>();
+    private final FenwickTree changedWeights = new FenwickTree();
+    private final DueQueue changedDue = new DueQueue(slot -> changedCards.get(slot).getNumber(CardProperty.DUE), 0);
+    private final TreeMap<Integer, LinkedHashSet<Card>> changedFailures = new TreeMap<>();
+    /**
+     * the first positions in the failure order and the due order of the index whose cards are
+     * neither removed nor changed; a card of the file never goes back once changed or removed
+     */
+    private int failedHead;
+    private int dueHead;
+    private final LinkedHashMap<Integer, Card> cache;
+    /**
+     * whether the failure counts of the file were reset, so that they read as 0
+     */
+    private boolean failuresReset;
+    private SplittableRandom random = new SplittableRandom();
+
+    private final ArrayList<CollectionListener> listeners = new ArrayList<>();
+    private final HashMap<CardProperty, AnswerIndex> answerIndexes = new HashMap<>();
+
+    /**
+     * @param index the opened deck
+     */
+    PagedCardCollection(DeckIndex index) {
+        this(index, CACHE_CARDS);
+    }
+
+    /**
+     * @param index the opened deck
+     * @param cacheCards the number of unchanged cards of the file kept in memory
+     */
+    PagedCardCollection(DeckIndex index, int cacheCards) {
+        this.index = index;
+        this.keys = index.keys();
+        added = new CardCollection(keys);
+        removed = new BitSet();
+        changed = new HashMap<>();
+        cache = new LinkedHashMap<Integer, Card>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Card> eldest) {
+                if (size() <= cacheCards) {
+                    return false;
+                }
+                for (AnswerIndex answers : answerIndexes.values()) {
+                    answers.cardRemoved(eldest.getValue());
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * a copy of {@code source} as it is now, sharing its file, for exporting while it changes
+     */
+    private PagedCardCollection(PagedCardCollection source) {
+        index = source.index;
+        keys = source.keys;
+        added = source.added.snapshot();
+        removed = (BitSet) source.removed.clone();
+        removedCount = source.removedCount;
+        changed = new HashMap<>();
+        for (Map.Entry<Integer, Card> entry : source.changed.entrySet()) {
+            Card copy = entry.getValue().copyOf();
+            copy.position = entry.getKey();
+            track(entry.getKey(), copy);
+        }
+        cache = new LinkedHashMap<>();
+        failuresReset = source.failuresReset;
+    }
+
+    @Override
+    public void add(Card card) throws IllegalArgumentException {
+        for (CardProperty key : keys) {
+            if (contains(key, card.getProperty(key))) {
+                throw new IllegalArgumentException("duplicated key!");
+            }
+        }
+        Card stored = card.store.owner == null && card.position < 0 ? card : card.copyOf();
+        added.add(stored);
+        for (CollectionListener listener : listeners) {
+            listener.cardAdded(stored);
+        }
+        for (AnswerIndex answers : answerIndexes.values()) {
+            answers.cardAdded(stored);
+        }
+    }
+
+    @Override
+    public void remove(CardProperty key, String value) {
+        Card card = findCard(key, value);
+        if (card == null) {
+            throw new NoSuchElementException("there is no such card.");
+        }
+        if (card.store.owner == added) {
+            added.remove(key, value);
+        } else {
+            int number = card.position;
+            removed.set(number);
+            removedCount++;
+            cache.remove(number);
+            untrack(number);
+            card.position = -1;
+        }
+        for (CollectionListener listener : listeners) {
+            listener.cardRemoved(card);
+        }
+        for (AnswerIndex answers : answerIndexes.values()) {
+            answers.cardRemoved(card);
+        }
+    }
+
+    @Override
+    public boolean contains(CardProperty property, String value) {
+        if (isKey(property)) {
+            return findCard(property, value) != null;
+        }
+        return !findCards(property, value).isEmpty();
+    }
+
+    /**
+     * find the cards with a given property value, by key or else by a scan of every card
+     */
+    @Override
+    public List<Card> findCards(CardProperty property, String value) {
+        List<Card> found = new ArrayList<>();
+        if (isKey(property)) {
+            Card card = findCard(property, value);
+            if (card != null) {
+                found.add(card);
+            }
+            return found;
+        }
+        String wanted = property.isNumeric() ? Integer.toString(parseNumber(value)) : value;
+        for (Card card : this) {
+            String actual = property.isNumeric() ? Integer.toString(card.getNumber(property)) : card.getProperty(property);
+            if (wanted.equals(actual)) {
+                found.add(card);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * reads the failures recorded by the index, then the cards that qualify; for {@code k <= 0}
+     * reads the failure count of every card of the file
+     */
+    @Override
+    public List<Card> failuresAtLeast(int k) {
+        if (k > 0) {
+            return failing(k, Integer.MAX_VALUE);
+        }
+        List<Map.Entry<Card, Integer>> failing = new ArrayList<>();
+        for (int number = 0; number < index.size(); number++) {
+            if (!removed.get(number)) {
+                int failure = fileFailure(number);
+                if (failure >= k) {
+                    failing.add(new SimpleImmutableEntry<>(card(number), failure));
+                }
+            }
+        }
+        for (Card card : added.failuresAtLeast(k)) {
+            failing.add(new SimpleImmutableEntry<>(card, added.getFailure(card)));
+        }
+        return failing.stream()
+                .sorted(Map.Entry.<Card, Integer>comparingByValue().reversed())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * lookups by non-key property scan the file, so there is no index to drop
+     */
+    @Override
+    public void dropIndex(CardProperty property) {
+    }
+
+    @Override
+    public void dropIndexes() {
+    }
+
+    /**
+     * @return an index of the answers of the cards in memory, which also finds any card by an
+     * exact key value
+     */
+    @Override
+    public AnswerIndex answerIndex(CardProperty property) {
+        AnswerIndex answers = answerIndexes.get(property);
+        if (answers == null) {
+            answers = new WorkingSetAnswers(property);
+            for (Card card : cache.values()) {
+                answers.cardAdded(card);
+            }
+            for (Card card : changed.values()) {
+                answers.cardAdded(card);
+            }
+            for (Card card : added) {
+                answers.cardAdded(card);
+            }
+            answerIndexes.put(property, answers);
+        }
+        return answers;
+    }
+
+    @Override
+    public Card getCard(CardProperty key, String value) {
+        Card card = findCard(key, value);
+        if (card == null) {
+            throw new NoSuchElementException("there is no such card.");
+        }
+        return card.copyOf();
+    }
+
+    @Override
+    public Card findCard(CardProperty key, String value) {
+        int k = Arrays.asList(keys).indexOf(key);
+        if (k < 0) {
+            throw new IllegalArgumentException("not a key");
+        }
+        Card card = added.findCard(key, value);
+        if (card != null) {
+            return card;
+        }
+        int number = index.find(k, value);
+        return number < 0 || removed.get(number) ? null : card(number);
+    }
+
+    /**
+     * returns a random card, drawing again when a removed card of the file is drawn
+     * @return Card chosen randomly
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public Card randomCard() {
+        if (getSize() == 0) {
+            throw new NoSuchElementException("empty collection");
+        }
+        while (true) {
+            int number = random.nextInt(index.size() + added.getSize());
+            if (number >= index.size()) {
+                return added.cardAt(number - index.size());
+            }
+            if (!removed.get(number)) {
+                return card(number);
+            }
+        }
+    }
+
+    /**
+     * returns a card drawn in proportion to its failure count plus one, drawing again when a
+     * removed card of the file, or the failures of the file of a changed card, are drawn
+     * @return Card chosen randomly by weight
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public Card weightedCard() {
+        if (getSize() == 0) {
+            throw new NoSuchElementException("empty collection");
+        }
+        // one ticket per card of the file, one per failure recorded by the index,
+        // one per failure of each changed card, then the tickets of the added cards
+        long fileFailures = failuresReset ? 0 : index.totalFailure();
+        long changedTickets = changedWeights.total();
+        while (true) {
+            long ticket = random.nextLong(index.size() + fileFailures + changedTickets + added.tickets());
+            if (ticket < index.size()) {
+                if (!removed.get((int) ticket)) {
+                    return card((int) ticket);
+                }
+                continue;
+            }
+            ticket -= index.size();
+            if (ticket < fileFailures) {
+                int number = index.failedCard(index.failedAt(ticket));
+                if (inFile(number)) {
+                    return card(number);
+                }
+                continue;
+            }
+            ticket -= fileFailures;
+            if (ticket < changedTickets) {
+                return changedCards.get(changedWeights.find(ticket));
+            }
+            return added.cardAtTicket(ticket - changedTickets);
+        }
+    }
+
+    /**
+     * returns the card due first among the first card of the file in the due order of the
+     * index, the changed cards and the added cards
+     * @return the card with the earliest due time
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public Card dueCard() {
+        if (getSize() == 0) {
+            throw new NoSuchElementException("empty collection");
+        }
+        while (dueHead < index.size() && !inFile(index.dueCard(dueHead))) {
+            dueHead++;
+        }
+        int number = dueHead < index.size() ? index.dueCard(dueHead) : -1;
+        long firstDue = number < 0 ? Long.MAX_VALUE : index.number(number, CardProperty.DUE);
+        Card first = null;
+        int slot = changedDue.peek();
+        if (slot >= 0 && changedCards.get(slot).getNumber(CardProperty.DUE) < firstDue) {
+            first = changedCards.get(slot);
+            firstDue = first.getNumber(CardProperty.DUE);
+        }
+        if (added.getSize() > 0 && added.dueCard().getNumber(CardProperty.DUE) < firstDue) {
+            first = added.dueCard();
+        }
+        return first != null ? first : card(number);
+    }
+
+    @Override
+    public void review(Card card, boolean correct) {
+        checkMember(card);
+        int[] next = Scheduler.next(card.getNumber(CardProperty.INTERVAL), card.getNumber(CardProperty.EASE),
+                correct, Scheduler.now());
+        setProperty(card, CardProperty.INTERVAL, String.valueOf(next[0]));
+        setProperty(card, CardProperty.EASE, String.valueOf(next[1]));
+        setProperty(card, CardProperty.DUE, String.valueOf(next[2]));
+    }
+
+    @Override
+    public int getFailure(Card card) {
+        return card.store.owner == added ? added.getFailure(card) : card.getNumber(CardProperty.FAILURE);
+    }
+
+    @Override
+    public int fail(Card card) {
+        checkMember(card);
+        int failure = getFailure(card) + 1;
+        setProperty(card, CardProperty.FAILURE, Integer.toString(failure));
+        return failure;
+    }
+
+    @Override
+    public void setProperty(Card card, CardProperty property, String value) {
+        checkMember(card);
+        if (card.store.owner == added) {
+            if (isKey(property) && !value.equals(card.getProperty(property)) && contains(property, value)) {
+                throw new IllegalArgumentException("duplicated key!");
+            }
+            String oldValue = card.getProperty(property);
+            added.setProperty(card, property, value);
+            notifyChanged(card, property, oldValue);
+            return;
+        }
+        if (property.isNumeric() && parseNumber(value) < 0) {
+            throw new IllegalArgumentException("illegal value");
+        }
+        Card pinned = pin(card);
+        String oldValue = pinned.getProperty(property);
+        if (isKey(property)) {
+            String newValue = value.replace('\n', ' ');
+            if (oldValue.equals(newValue)) {
+                return;
+            }
+            if (contains(property, newValue)) {
+                throw new IllegalArgumentException("duplicated key!");
+            }
+            // the file index knows the card by its old key, so the card moves to the added cards
+            int number = pinned.position;
+            removed.set(number);
+            removedCount++;
+            untrack(number);
+            pinned.position = -1;
+            pinned.store.set(pinned.slot, property, newValue);
+            added.add(pinned);
+        } else {
+            int slot = changedSlots.get(pinned.position);
+            int oldFailure = pinned.getNumber(CardProperty.FAILURE);
+            pinned.store.set(pinned.slot, property, value);
+            if (property == CardProperty.FAILURE) {
+                int failure = pinned.getNumber(CardProperty.FAILURE);
+                removeFailure(pinned, oldFailure);
+                addFailure(pinned, failure);
+                changedWeights.set(slot, failure);
+            } else if (property == CardProperty.DUE) {
+                changedDue.update(slot);
+            }
+        }
+        notifyChanged(pinned, property, oldValue);
+    }
+
+    /**
+     * reset the failure count of every card, in O(k) for the k cards in memory
+     */
+    @Override
+    public void resetStats() {
+        failuresReset = true;
+        for (Card card : cache.values()) {
+            card.store.setNumber(card.slot, CardProperty.FAILURE, 0);
+        }
+        for (Card card : changed.values()) {
+            card.store.setNumber(card.slot, CardProperty.FAILURE, 0);
+        }
+        changedWeights.clear();
+        changedFailures.clear();
+        added.resetStats();
+        for (CollectionListener listener : listeners) {
+            listener.statsReset();
+        }
+    }
+
+    @Override
+    public void addListener(CollectionListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(CollectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public int maxFailure() {
+        int max = Math.max(added.maxFailure(), changedFailures.isEmpty() ? 0 : changedFailures.lastKey());
+        if (!failuresReset) {
+            while (failedHead < index.failedCount() && !inFile(index.failedCard(failedHead))) {
+                failedHead++;
+            }
+            if (failedHead < index.failedCount()) {
+                max = Math.max(max, index.failedFailure(failedHead));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public List<Card> hardestCards() {
+        int max = maxFailure();
+        return max == 0 ? new ArrayList<>() : failing(max, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Card> hardestCards(int n) {
+        return failing(1, n);
+    }
+
+    /**
+     * reseed the generator used by {@code randomCard}, so that a sequence of draws can be reproduced
+     * @param seed the new seed
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * write the cards of the file, as changed in the session, then the added cards; cards are
+     * read through the cache only when they are in it, so an export does not flush it
+     */
+    @Override
+    public int exportCards(String path, boolean compressed) throws IOException {
+        CardProperty[] properties = exportedProperties();
+        int fileCards = index.size();
+        CardCollection addedCards = added.snapshot();
+        int size = getSize();
+        CardCollection.writeExport(path, compressed, size, keys, properties, fileCards + addedCards.getSize(), (from, to) -> {
+            StringBuilder chunk = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                Card card = i < fileCards ? exportedCard(i) : addedCards.cardAt(i - fileCards);
+                if (card == null) {
+                    continue;
+                }
+                for (CardProperty property : properties) {
+                    chunk.append(card.getProperty(property)).append('\n');
+                }
+            }
+            return chunk.toString().getBytes(StandardCharsets.UTF_8);
+        });
+        return size;
+    }
+
+    /**
+     * @return the properties that an export writes; the scheduling columns of the file are kept,
+     * otherwise only the cards in memory can have been scheduled
+     */
+    private CardProperty[] exportedProperties() {
+        for (CardProperty property : index.properties()) {
+            if (property.isScheduling()) {
+                return CardProperty.values();
+            }
+        }
+        for (Card card : changed.values()) {
+            for (CardProperty property : CardCollection.SCHEDULING) {
+                if (card.getNumber(property) != 0) {
+                    return CardProperty.values();
+                }
+            }
+        }
+        return added.exportedProperties();
+    }
+
+    /**
+     * @return a copy of the session's changes that shares the file, in O(k) for the k changed cards;
+     * it is meant to be exported, not changed
+     */
+    @Override
+    public Cards snapshot() {
+        return new PagedCardCollection(this);
+    }
+
+    /**
+     * @return a copy of every card on the heap, for writers that need slots, e.g. binary snapshots
+     */
+    @Override
+    public CardCollection stableView() {
+        CardCollection copy = new CardCollection(keys, getSize());
+        for (Card card : this) {
+            copy.add(card.copyOf());
+        }
+        return copy;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        // the added cards grow on their own
+    }
+
+    @Override
+    public int addNewLines(CardProperty[] order, String[] values, int count) {
+        int width = order.length;
+        int inserted = 0;
+        for (int i = 0; i < count; i++) {
+            Card card = new Card();
+            for (int j = 0; j < width; j++) {
+                card.setProperty(order[j], values[i * width + j]);
+            }
+            try {
+                add(card);
+                inserted++;
+            } catch (IllegalArgumentException e) {
+                // key taken
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public StorageMode getStorage() {
+        return StorageMode.MAPPED;
+    }
+
+    @Override
+    public CardProperty[] getKeys() {
+        return keys.clone();
+    }
+
+    @Override
+    public int getSize() {
+        return index.size() - removedCount + added.getSize();
+    }
+
+    /**
+     * @return an iterator over the cards of the file, then the added cards; the cards of the
+     * file that are not in memory are read in for the iteration only
+     */
+    @Override
+    public Iterator<Card> iterator() {
+        return new Iterator<Card>() {
+            private int number = removed.nextClearBit(0);
+            private final Iterator<Card> addedCards = added.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return number < index.size() || addedCards.hasNext();
+            }
+
+            @Override
+            public Card next() {
+                if (number >= index.size()) {
+                    return addedCards.next();
+                }
+                Card card = changed.get(number);
+                if (card == null) {
+                    card = cache.get(number);
+                }
+                if (card == null) {
+                    card = read(number);
+                }
+                number = removed.nextClearBit(number + 1);
+                return card;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<Card> spliterator() {
+        return Spliterators.spliterator(iterator(), getSize(), Spliterator.NONNULL | Spliterator.DISTINCT);
+    }
+
+    /**
+     * @return the card of the file with this number, read in and cached if it is not in memory
+     */
+    private Card card(int number) {
+        Card card = changed.get(number);
+        if (card != null) {
+            return card;
+        }
+        card = cache.get(number);
+        if (card == null) {
+            card = read(number);
+            cache.put(number, card);
+            for (AnswerIndex answers : answerIndexes.values()) {
+                answers.cardAdded(card);
+            }
+        }
+        return card;
+    }
+
+    /**
+     * @return a new card with the values of the card of the file with this number
+     */
+    private Card read(int number) {
+        Card card = new Card();
+        String[] values = index.values(number);
+        CardProperty[] properties = index.properties();
+        for (int i = 0; i < properties.length; i++) {
+            card.store.set(card.slot, properties[i], values[i]);
+        }
+        if (failuresReset) {
+            card.store.setNumber(card.slot, CardProperty.FAILURE, 0);
+        }
+        card.position = number;
+        return card;
+    }
+
+    /**
+     * @return the card of the file to export, without touching the cache; null if removed
+     */
+    private Card exportedCard(int number) {
+        if (removed.get(number)) {
+            return null;
+        }
+        Card card = changed.get(number);
+        return card != null ? card : read(number);
+    }
+
+    /**
+     * @return the cards failed at least {@code k > 0} times, the most failed first, at most
+     * {@code limit} of them; only the cards of the file that are returned are read in
+     */
+    private List<Card> failing(int k, int limit) {
+        // the cards of the file as their numbers until they make the cut
+        List<Map.Entry<Object, Integer>> failing = new ArrayList<>();
+        if (!failuresReset) {
+            for (int i = failedHead; i < index.failedCount() && failing.size() < limit; i++) {
+                int failure = index.failedFailure(i);
+                if (failure < k) {
+                    break;
+                }
+                if (inFile(index.failedCard(i))) {
+                    failing.add(new SimpleImmutableEntry<>(index.failedCard(i), failure));
+                }
+            }
+        }
+        int fromFile = failing.size();
+        for (Map.Entry<Integer, LinkedHashSet<Card>> bucket : changedFailures.tailMap(k, true).descendingMap().entrySet()) {
+            for (Card card : bucket.getValue()) {
+                if (failing.size() - fromFile == limit) {
+                    break;
+                }
+                failing.add(new SimpleImmutableEntry<>(card, bucket.getKey()));
+            }
+        }
+        int fromChanged = failing.size();
+        for (Card card : added.failuresAtLeast(k)) {
+            if (failing.size() - fromChanged == limit) {
+                break;
+            }
+            failing.add(new SimpleImmutableEntry<>(card, added.getFailure(card)));
+        }
+        return failing.stream()
+                .sorted(Map.Entry.<Object, Integer>comparingByValue().reversed())
+                .limit(limit)
+                .map(entry -> entry.getKey() instanceof Card ? (Card) entry.getKey() : card((Integer) entry.getKey()))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * @return whether the card of the file with this number still has the values of the file
+     */
+    private boolean inFile(int number) {
+        return !removed.get(number) && !changed.containsKey(number);
+    }
+
+    /**
+     * keep a card of the file that is changed from now on
+     */
+    private void track(int number, Card card) {
+        changed.put(number, card);
+        changedSlots.put(number, changedCards.size());
+        changedCards.add(card);
+        int failure = card.getNumber(CardProperty.FAILURE);
+        changedWeights.append(failure);
+        changedDue.add(changedCards.size() - 1);
+        addFailure(card, failure);
+    }
+
+    /**
+     * forget a changed card of the file that is removed or moves to the added cards,
+     * moving the last changed card into its place
+     */
+    private void untrack(int number) {
+        Card card = changed.remove(number);
+        if (card == null) {
+            return;
+        }
+        int slot = changedSlots.remove(number);
+        int last = changedCards.size() - 1;
+        Card moved = changedCards.get(last);
+        changedCards.set(slot, moved);
+        changedWeights.set(slot, changedWeights.get(last));
+        changedWeights.removeLast();
+        changedDue.remove(slot, last);
+        changedCards.remove(last);
+        if (slot != last) {
+            changedSlots.put(moved.position, slot);
+        }
+        removeFailure(card, card.getNumber(CardProperty.FAILURE));
+    }
+
+    private void addFailure(Card card, int failure) {
+        if (failure > 0) {
+            changedFailures.computeIfAbsent(failure, f -> new LinkedHashSet<>()).add(card);
+        }
+    }
+
+    private void removeFailure(Card card, int failure) {
+        LinkedHashSet<Card> bucket = changedFailures.get(failure);
+        if (bucket != null && bucket.remove(card) && bucket.isEmpty()) {
+            changedFailures.remove(failure);
+        }
+    }
+
+    private int fileFailure(int number) {
+        Card card = changed.get(number);
+        if (card != null) {
+            return card.getNumber(CardProperty.FAILURE);
+        }
+        return failuresReset ? 0 : index.number(number, CardProperty.FAILURE);
+    }
+
+    /**
+     * @return the one card object of a file card that takes its changes, kept in memory from now on
+     */
+    private Card pin(Card card) {
+        int number = card.position;
+        Card pinned = changed.get(number);
+        if (pinned == null) {
+            pinned = cache.remove(number);
+            if (pinned == null) {
+                pinned = card;
+                for (AnswerIndex answers : answerIndexes.values()) {
+                    answers.cardAdded(pinned);
+                }
+            }
+            track(number, pinned);
+        }
+        return pinned;
+    }
+
+    private void notifyChanged(Card card, CardProperty property, String oldValue) {
+        for (CollectionListener listener : listeners) {
+            if (listener.observes(property)) {
+                listener.propertyChanged(card, property, oldValue);
+            }
+        }
+        for (AnswerIndex answers : answerIndexes.values()) {
+            answers.propertyChanged(card, property, oldValue);
+        }
+    }
+
+    private boolean isKey(CardProperty property) {
+        return Arrays.asList(keys).contains(property);
+    }
+
+    private void checkMember(Card card) {
+        if (card.store.owner == added) {
+            return;
+        }
+        if (card.store.owner != null || card.position < 0 || card.position >= index.size()
+                || removed.get(card.position)) {
+            throw new IllegalArgumentException("not a card of this collection");
+        }
+    }
+
+    private static int parseNumber(String value) {
+        try {
+            return value.isEmpty() ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * answers among the cards in memory, and exact key values among all cards
+     */
+    private class WorkingSetAnswers extends AnswerIndex {
+
+        private final CardProperty property;
+
+        WorkingSetAnswers(CardProperty property) {
+            super(property);
+            this.property = property;
+        }
+
+        @Override
+        public synchronized Card find(String answer) {
+            Card card = super.find(answer);
+            if (card == null && isKey(property)) {
+                card = findCard(property, answer);
+            }
+            return card;
+        }
+    }
+}
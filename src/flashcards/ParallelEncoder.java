@@ -0,0 +1,64 @@
+package flashcards;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Encodes the slots of a collection in chunks and writes the chunks to a channel in slot order.
+ * From {@link CardCollection#PARALLEL_THRESHOLD} slots on, chunks are encoded on the common
+ * fork-join pool, with a bounded number of encoded chunks waiting to be written.
+ */
+class ParallelEncoder {
+
+    static final int CHUNK_SLOTS = 1 << 14;
+
+    /**
+     * encodes the slots {@code [from, to)}; called from several threads at once
+     */
+    interface ChunkEncoder {
+        byte[] encode(int from, int to);
+    }
+
+    /**
+     * encode and write the slots {@code [0, size)}
+     * @throws IOException if writing fails
+     */
+    static void write(WritableByteChannel channel, int size, ChunkEncoder encoder) throws IOException {
+        if (size < CardCollection.PARALLEL_THRESHOLD) {
+            for (int from = 0; from < size; from += CHUNK_SLOTS) {
+                writeFully(channel, encoder.encode(from, Math.min(size, from + CHUNK_SLOTS)));
+            }
+            return;
+        }
+        int window = 2 * ForkJoinPool.getCommonPoolParallelism() + 2;
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        try {
+            for (int from = 0; from < size; from += CHUNK_SLOTS) {
+                int start = from;
+                int end = Math.min(size, from + CHUNK_SLOTS);
+                pending.add(ForkJoinPool.commonPool().submit(() -> encoder.encode(start, end)));
+                if (pending.size() >= window) {
+                    writeFully(channel, pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeFully(channel, pending.poll().join());
+            }
+        } finally {
+            for (ForkJoinTask<byte[]> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    static void writeFully(WritableByteChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package flashcards;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates load against a {@link QuizServer} on this machine: many sessions, each adding a card,
+ * answering a question, asking for the hardest card and removing its card again.
+ * Reports sessions per second and the latency of every command.
+ * <p>
+ * Usage: {@code QuizLoadClient <port> <sessions> [concurrency]}
+ */
+public class QuizLoadClient {
+
+    private static final String[] COMMANDS = {"connect", "add", "ask", "hardest card", "remove", "exit"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: QuizLoadClient <port> <sessions> [concurrency]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        int sessions = Integer.parseInt(args[1]);
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        List<Future<long[][]>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < concurrency; t++) {
+            results.add(pool.submit(() -> {
+                // latencies in nanoseconds, by command then by session
+                long[][] latencies = new long[COMMANDS.length][sessions];
+                int done = 0;
+                for (int id = next.getAndIncrement(); id < sessions; id = next.getAndIncrement()) {
+                    runSession(port, id, latencies, done++);
+                }
+                for (int c = 0; c < COMMANDS.length; c++) {
+                    latencies[c] = Arrays.copyOf(latencies[c], done);
+                }
+                return latencies;
+            }));
+        }
+        Map<String, List<long[]>> byCommand = new LinkedHashMap<>();
+        for (String command : COMMANDS) {
+            byCommand.put(command, new ArrayList<>());
+        }
+        for (Future<long[][]> result : results) {
+            long[][] latencies = result.get();
+            for (int c = 0; c < COMMANDS.length; c++) {
+                byCommand.get(COMMANDS[c]).add(latencies[c]);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        System.out.printf("%d sessions in %.2f s: %.0f sessions/s%n",
+                sessions, elapsed / 1e9, sessions / (elapsed / 1e9));
+        System.out.printf("%-14s %10s %10s %10s%n", "command", "p50 (us)", "p99 (us)", "max (us)");
+        for (Map.Entry<String, List<long[]>> entry : byCommand.entrySet()) {
+            long[] all = entry.getValue().stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            if (all.length == 0) {
+                continue;
+            }
+            System.out.printf("%-14s %10d %10d %10d%n", entry.getKey(),
+                    all[(int) (all.length * 0.50)] / 1000,
+                    all[Math.min(all.length - 1, (int) (all.length * 0.99))] / 1000,
+                    all[all.length - 1] / 1000);
+        }
+    }
+
+    /**
+     * run one session, recording the latency of its commands at index {@code index}
+     */
+    private static void runSession(int port, int id, long[][] latencies, int index) throws IOException {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            Reader in = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            awaitPrompt(in);
+            latencies[0][index] = System.nanoTime() - start;
+
+            String term = "load-term-" + id;
+            latencies[1][index] = command(in, out, "add", term, "load-definition-" + id);
+            latencies[2][index] = command(in, out, "ask", "1", "a wrong answer");
+            latencies[3][index] = command(in, out, "hardest card");
+            latencies[4][index] = command(in, out, "remove", term);
+
+            start = System.nanoTime();
+            send(out, "exit");
+            while (in.read() >= 0) {
+                // drain the farewell until the server closes the connection
+            }
+            latencies[5][index] = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * send a command and its inputs, each after the prompt asking for it
+     * @return the time until the next command is prompted for
+     */
+    private static long command(Reader in, Writer out, String... lines) throws IOException {
+        long start = System.nanoTime();
+        for (String line : lines) {
+            send(out, line);
+            awaitPrompt(in);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void send(Writer out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * read until the server asks for input, i.e. until the output ends with "> "
+     */
+    private static void awaitPrompt(Reader in) throws IOException {
+        int previous = 0;
+        while (true) {
+            int c = in.read();
+            if (c < 0) {
+                throw new IOException("connection closed");
+            }
+            if (previous == '>' && c == ' ') {
+                return;
+            }
+            previous = c;
+        }
+    }
+}
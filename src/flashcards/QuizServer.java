@@ -0,0 +1,190 @@
+package flashcards;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the command set of {@link Main} to TCP connections on the loopback interface.
+ * Every connection is a session with its own {@link Logger} and {@link SessionStats},
+ * run on a thread of its own; all sessions share one {@link Deck}. Connections are not
+ * authenticated, so their sessions cannot import, merge, export or save logs.
+ * <p>
+ * Sessions run on virtual threads when the runtime provides them, and on a cached pool of
+ * platform threads otherwise. A connection that fails before its session starts is closed;
+ * when accepting fails, e.g. out of file descriptors, the server logs it and waits a little
+ * longer after each failure in a row before it accepts again.
+ */
+public class QuizServer implements Closeable {
+
+    /**
+     * the default capacity of the log of a session
+     */
+    public static final int SESSION_LOG_CAPACITY = 1_000;
+
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 1_000;
+
+    private final ServerSocket serverSocket;
+    private final Deck deck;
+    private final SamplingMode sampling;
+    private final DeckFormat format;
+    private final int logCapacity;
+    private final Logger logger;
+    private final ExecutorService sessions = newSessionExecutor();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor = new Thread(this::acceptLoop, "quiz-server");
+    private volatile boolean closed;
+
+    /**
+     * @param port the port to listen on, 0 for any free port
+     * @param deck the cards shared by the sessions
+     * @param sampling sampling mode of ask
+     * @param format deck file format, null to detect it per file
+     * @param logCapacity the capacity of the log of each session
+     * @param logger records the failures of the server itself
+     * @throws IOException if the port cannot be bound
+     */
+    QuizServer(int port, Deck deck, SamplingMode sampling, DeckFormat format, int logCapacity,
+               Logger logger) throws IOException {
+        this.serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        this.deck = deck;
+        this.sampling = sampling;
+        this.format = format;
+        this.logCapacity = logCapacity;
+        this.logger = logger;
+    }
+
+    /**
+     * start accepting connections in the background
+     */
+    public void start() {
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * stop accepting connections and end every session
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Socket connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+        sessions.shutdown();
+        try {
+            sessions.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        long backoff = 0;
+        while (true) {
+            Socket connection;
+            try {
+                connection = serverSocket.accept();
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                backoff = Math.min(Math.max(backoff * 2, MIN_BACKOFF_MILLIS), MAX_BACKOFF_MILLIS);
+                logger.log(String.format("Server: accept failed (%s), retrying in %d ms.\n", e.getMessage(), backoff));
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            backoff = 0;
+            try {
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                // close() may have run since accept() returned, without seeing this connection
+                if (closed) {
+                    throw new RejectedExecutionException("server closed");
+                }
+                sessions.execute(() -> serve(connection));
+            } catch (IOException | RuntimeException e) {
+                connections.remove(connection);
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+                if (closed) {
+                    return;
+                }
+                logger.log(String.format("Server: could not start a session (%s).\n", e));
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try {
+            Scanner scanner = new Scanner(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8), 1 << 13));
+            Console console = new Console(new Logger(logCapacity, Logger.Overflow.DROP_OLDEST), scanner, out, false);
+            SessionStats stats = new SessionStats();
+            // remote clients are not trusted with the files of the server
+            Main.session(console, deck, sampling, format, false, stats);
+            console.output("Bye bye! %s\n\n", stats.summary());
+            console.flush();
+        } catch (EndOfInputException | IOException e) {
+            // the client has left
+        } finally {
+            connections.remove(connection);
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task if the runtime has them,
+     * a cached thread pool otherwise
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "quiz-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
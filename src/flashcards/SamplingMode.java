@@ -0,0 +1,10 @@
+package flashcards;
+
+public enum SamplingMode {
+    UNIFORM,
+    WEIGHTED,
+    /**
+     * the card due first, as scheduled by {@link Scheduler}
+     */
+    SCHEDULED
+}
@@ -0,0 +1,51 @@
+package flashcards;
+
+/**
+ * The SM-2 spaced-repetition algorithm, on the {@code INTERVAL}, {@code EASE} and {@code DUE}
+ * properties of a card. Answers are graded on the SM-2 scale as 4 when correct and 2 when wrong:
+ * a correct answer keeps the ease and stretches the interval, 1 day, then 6, then by the ease;
+ * a wrong answer lowers the ease by 0.32 and starts the card over, due again a minute later.
+ */
+class Scheduler {
+
+    static final int DEFAULT_EASE = 2500;
+    static final int MIN_EASE = 1300;
+    static final int WRONG_EASE_PENALTY = 320;
+    static final int MAX_INTERVAL = 36500;
+    static final int MINUTES_PER_DAY = 24 * 60;
+
+    private Scheduler() {
+    }
+
+    /**
+     * @return the current time in minutes since the epoch
+     */
+    static int now() {
+        return (int) (System.currentTimeMillis() / 60_000);
+    }
+
+    /**
+     * schedule the next review of a card
+     * @param interval the current interval in days
+     * @param ease the current ease in thousandths, 0 for the default
+     * @param correct whether the answer was correct
+     * @param now the time of the answer in minutes since the epoch
+     * @return the new interval, ease and due time
+     */
+    static int[] next(int interval, int ease, boolean correct, int now) {
+        if (ease == 0) {
+            ease = DEFAULT_EASE;
+        }
+        if (!correct) {
+            return new int[] {0, Math.max(MIN_EASE, ease - WRONG_EASE_PENALTY), now + 1};
+        }
+        if (interval == 0) {
+            interval = 1;
+        } else if (interval == 1) {
+            interval = 6;
+        } else {
+            interval = (int) Math.min(MAX_INTERVAL, Math.round(interval * (ease / 1000.0)));
+        }
+        return new int[] {interval, ease, now + interval * MINUTES_PER_DAY};
+    }
+}
@@ -0,0 +1,343 @@
+package flashcards;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static flashcards.CardProperty.DEFINITION;
+import static flashcards.CardProperty.TERM;
+
+/**
+ * Replays session transcripts in-process, as fast as the commands run, and reports the throughput
+ * and the latency percentiles of every command. A transcript is either the log of a session,
+ * as saved by the command "log", whose inputs are the lines starting with the prompt "> ",
+ * or a synthetic one with a mix of add, remove, ask, hardest card and reset stats.
+ * <p>
+ * Every pass starts from a fresh deck of {@code -deck} generated cards ({@code term-i},
+ * {@code definition-i}) and feeds the inputs to the command handlers of {@link Main} through
+ * a console that writes nowhere. A logged transcript replays as it was recorded when it starts
+ * from the same deck; otherwise commands may read the inputs of other commands.
+ * The first {@code -warmup} passes let the JIT compile the handlers and are not reported.
+ * Commands with files, e.g. import, export and log, read and write the paths of the transcript.
+ * <p>
+ * Usage: {@code SessionReplay -transcript <log> [-deck <cards>] [-warmup <passes>] [-passes <passes>]
+ * [-sampling uniform|weighted|scheduled]}
+ * or {@code SessionReplay -commands <count> [-mix ask=60,add=20,remove=15,hardest card=5] [-seed <seed>] ...}
+ */
+public class SessionReplay {
+
+    private static final CardProperty[] ADD_ORDER = {TERM, DEFINITION};
+    private static final Metrics.Command[] MIXABLE = {
+            Metrics.Command.ADD, Metrics.Command.REMOVE, Metrics.Command.ASK,
+            Metrics.Command.HARDEST_CARD, Metrics.Command.RESET_STATS
+    };
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+    private final int deckSize;
+    private final SamplingMode sampling;
+    private final EnumMap<Metrics.Command, LatencyHistogram> latencies = new EnumMap<>(Metrics.Command.class);
+    private long commands;
+    private long nanos;
+    private int finalSize;
+
+    /**
+     * @param deckSize the number of cards each pass starts with
+     * @param sampling sampling mode of ask
+     */
+    SessionReplay(int deckSize, SamplingMode sampling) {
+        this.deckSize = deckSize;
+        this.sampling = sampling;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        options.put("-deck", "");
+        options.put("-warmup", "1");
+        options.put("-passes", "1");
+        options.put("-sampling", "uniform");
+        options.put("-mix", "ask=60,add=20,remove=15,hardest card=5");
+        options.put("-seed", "1");
+        if (args.length % 2 == 1 || (!contains(args, "-transcript") && !contains(args, "-commands"))) {
+            usage();
+            return;
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            if (!options.containsKey(args[i]) && !args[i].equals("-transcript") && !args[i].equals("-commands")) {
+                usage();
+                return;
+            }
+            options.put(args[i], args[i + 1]);
+        }
+
+        String[] inputs;
+        int deckSize;
+        SamplingMode sampling;
+        int warmup;
+        int passes;
+        try {
+            if (!options.get("-sampling").matches("uniform|weighted|scheduled")) {
+                throw new IllegalArgumentException("sampling should be uniform, weighted or scheduled");
+            }
+            sampling = SamplingMode.valueOf(options.get("-sampling").toUpperCase());
+            warmup = Integer.parseInt(options.get("-warmup"));
+            passes = Integer.parseInt(options.get("-passes"));
+            if (options.containsKey("-transcript")) {
+                inputs = readTranscript(options.get("-transcript"));
+                deckSize = options.get("-deck").isEmpty() ? 0 : Integer.parseInt(options.get("-deck"));
+            } else {
+                deckSize = options.get("-deck").isEmpty() ? 10_000 : Integer.parseInt(options.get("-deck"));
+                inputs = generate(Integer.parseInt(options.get("-commands")), parseMix(options.get("-mix")),
+                        deckSize, Long.parseLong(options.get("-seed")));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("illegal arguments (" + e.getMessage() + ").");
+            return;
+        }
+
+        for (int pass = warmup; pass > 0; pass--) {
+            new SessionReplay(deckSize, sampling).replay(inputs);
+        }
+        SessionReplay replay = new SessionReplay(deckSize, sampling);
+        for (int pass = passes; pass > 0; pass--) {
+            replay.replay(inputs);
+        }
+        System.out.print(replay.report());
+    }
+
+    /**
+     * replay the inputs of one session on a fresh deck, until the command "exit" or the end of the inputs
+     * @param inputs the lines typed in the session, commands and their arguments
+     */
+    void replay(String[] inputs) {
+        Deck deck = new Deck(generateDeck(deckSize), null, false);
+        ReplayConsole console = new ReplayConsole(inputs);
+        SessionStats stats = new SessionStats();
+        try {
+            while (console.hasInput()) {
+                String command = console.getInput();
+                if (command.equals("exit")) {
+                    break;
+                }
+                long start = System.nanoTime();
+                if (!Main.dispatch(command, console, deck, deck.cards(), sampling, null, true, stats)) {
+                    console.output("Illegal command!\n\n");
+                }
+                record(Metrics.Command.of(command), System.nanoTime() - start);
+            }
+        } catch (EndOfInputException e) {
+            // the last command wanted more inputs than the transcript has
+        }
+        Main.exports.awaitAll(console);
+        finalSize = deck.cards().getSize();
+    }
+
+    private void record(Metrics.Command command, long elapsed) {
+        latencies.computeIfAbsent(command, c -> new LatencyHistogram()).record(elapsed);
+        commands++;
+        nanos += elapsed;
+    }
+
+    /**
+     * @return the throughput of all passes, then the calls, throughput and latency quantiles of every command
+     */
+    String report() {
+        StringBuilder report = new StringBuilder(String.format(
+                "Replayed %d commands in %.3f s: %.0f commands/s, %d cards in the collection.\n",
+                commands, nanos / 1e9, commands / Math.max(nanos / 1e9, 1e-9), finalSize));
+        report.append(String.format("  %-13s %9s %10s %9s", "command", "calls", "calls/s", "mean (us)"));
+        for (String name : QUANTILE_NAMES) {
+            report.append(String.format(" %10s", name + " (us)"));
+        }
+        report.append(String.format(" %10s\n", "max (us)"));
+        for (Map.Entry<Metrics.Command, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            report.append(String.format("  %-13s %9d %10.0f %9.1f", entry.getKey(), histogram.getCount(),
+                    histogram.getCount() / Math.max(histogram.getTotalNanos() / 1e9, 1e-9),
+                    histogram.getMeanNanos() / 1e3));
+            for (double quantile : QUANTILES) {
+                report.append(String.format(" %10.1f", histogram.getQuantileNanos(quantile) / 1e3));
+            }
+            report.append(String.format(" %10.1f\n", histogram.getMaxNanos() / 1e3));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return the inputs of a logged session: the lines after the prompt "> "
+     */
+    static String[] readTranscript(String path) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            if (line.startsWith("> ")) {
+                inputs.add(line.substring(2));
+            }
+        }
+        return inputs.toArray(new String[0]);
+    }
+
+    /**
+     * generate the inputs of a session on a deck generated by {@link #generateDeck}; the generator
+     * follows the cards in the deck, so every command gets the inputs it asks for: adds add new
+     * cards, removes remove existing ones and asks answer with the definition of a random card,
+     * which is mostly wrong and so also takes the answer index
+     * @param count the number of commands, followed by "exit"
+     * @param mix the weight of each command
+     * @param deckSize the number of cards the session starts with
+     * @param seed seed of the choices
+     */
+    static String[] generate(int count, Map<Metrics.Command, Integer> mix, int deckSize, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int totalWeight = 0;
+        for (int weight : mix.values()) {
+            totalWeight += weight;
+        }
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("mix should have a positive weight");
+        }
+        // the numbers of the cards in the deck, in no order
+        int[] live = new int[Math.max(deckSize, 16)];
+        int liveCount = deckSize;
+        for (int i = 0; i < deckSize; i++) {
+            live[i] = i;
+        }
+        int nextCard = deckSize;
+
+        List<String> inputs = new ArrayList<>(count * 3 + 1);
+        for (int i = 0; i < count; i++) {
+            int pick = random.nextInt(totalWeight);
+            Metrics.Command command = null;
+            for (Map.Entry<Metrics.Command, Integer> entry : mix.entrySet()) {
+                command = entry.getKey();
+                pick -= entry.getValue();
+                if (pick < 0) {
+                    break;
+                }
+            }
+            inputs.add(command.toString());
+            switch (command) {
+                case ADD:
+                    inputs.add("term-" + nextCard);
+                    inputs.add("definition-" + nextCard);
+                    if (liveCount == live.length) {
+                        live = Arrays.copyOf(live, live.length * 2);
+                    }
+                    live[liveCount++] = nextCard++;
+                    break;
+                case REMOVE:
+                    if (liveCount == 0) {
+                        inputs.add("term-" + nextCard);
+                        break;
+                    }
+                    int removed = random.nextInt(liveCount);
+                    inputs.add("term-" + live[removed]);
+                    live[removed] = live[--liveCount];
+                    break;
+                case ASK:
+                    if (liveCount > 0) {
+                        inputs.add("1");
+                        inputs.add("definition-" + live[random.nextInt(liveCount)]);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        inputs.add("exit");
+        return inputs.toArray(new String[0]);
+    }
+
+    /**
+     * @param mix e.g. {@code ask=60,add=20,remove=15,hardest card=5}
+     * @return the weight of each command, in the order given
+     * @throws IllegalArgumentException if the mix is malformed or names another command
+     */
+    static Map<Metrics.Command, Integer> parseMix(String mix) {
+        Map<Metrics.Command, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            int split = part.indexOf('=');
+            Metrics.Command command = split < 0 ? Metrics.Command.ILLEGAL
+                    : Metrics.Command.of(part.substring(0, split).trim());
+            if (!Arrays.asList(MIXABLE).contains(command)) {
+                throw new IllegalArgumentException("mix takes add, remove, ask, hardest card and reset stats");
+            }
+            int weight = Integer.parseInt(part.substring(split + 1).trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("mix weights should not be negative");
+            }
+            weights.put(command, weight);
+        }
+        return weights;
+    }
+
+    /**
+     * @return a collection of {@code size} cards {@code term-i}, {@code definition-i}
+     */
+    static CardCollection generateDeck(int size) {
+        CardCollection cards = new CardCollection(ADD_ORDER, Math.max(size, 16));
+        String[] values = new String[BatchRunner.BATCH_SIZE * ADD_ORDER.length];
+        for (int from = 0; from < size; from += BatchRunner.BATCH_SIZE) {
+            int count = Math.min(BatchRunner.BATCH_SIZE, size - from);
+            for (int i = 0; i < count; i++) {
+                values[2 * i] = "term-" + (from + i);
+                values[2 * i + 1] = "definition-" + (from + i);
+            }
+            cards.addNewLines(ADD_ORDER, values, count);
+        }
+        return cards;
+    }
+
+    private static boolean contains(String[] args, String flag) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (args[i].equals(flag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void usage() {
+        System.out.println("usage: SessionReplay -transcript <log> | -commands <count> [-mix <command=weight,...>]"
+                + " [-seed <seed>] [-deck <cards>] [-warmup <passes>] [-passes <passes>]"
+                + " [-sampling uniform|weighted|scheduled]");
+    }
+
+    /**
+     * A quiet console that takes its input from the replayed lines and writes nowhere;
+     * messages are still formatted and logged, as in a session.
+     */
+    private static class ReplayConsole extends Console {
+        private final String[] inputs;
+        private int next;
+
+        ReplayConsole(String[] inputs) {
+            super(new Logger(), null, new PrintWriter(Writer.nullWriter()), true);
+            this.inputs = inputs;
+        }
+
+        boolean hasInput() {
+            return next < inputs.length;
+        }
+
+        @Override
+        public String getInput() {
+            if (next == inputs.length) {
+                throw new EndOfInputException();
+            }
+            String input = inputs[next++];
+            getLogger().log(input + "\n");
+            return input;
+        }
+    }
+}
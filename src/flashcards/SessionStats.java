@@ -0,0 +1,18 @@
+package flashcards;
+
+/**
+ * Counters of one session; the failure counts of the cards belong to the collection instead.
+ */
+class SessionStats {
+
+    int commands;
+    int asked;
+    int wrong;
+
+    /**
+     * @return a one-line report of the session
+     */
+    String summary() {
+        return String.format("%d commands, %d questions asked, %d wrong answers.", commands, asked, wrong);
+    }
+}
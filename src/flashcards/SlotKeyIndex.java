@@ -0,0 +1,144 @@
+package flashcards;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A {@link KeyIndex} for off-heap stores: an open-addressing table with linear probing of the
+ * slots of the cards and the hashes of their values. The values themselves stay in the store,
+ * so an entry costs eight bytes and the garbage collector has nothing to trace.
+ * Deletion shifts the following entries back, so there are no tombstones.
+ */
+class SlotKeyIndex implements KeyIndex {
+
+    private static final int FREE = -1;
+
+    private final CardStore store;
+    private final CardProperty property;
+    private int[] slots;
+    private int[] hashes;
+    private int mask;
+    private int size;
+
+    SlotKeyIndex(CardStore store, CardProperty property, int expectedSize) {
+        this.store = store;
+        this.property = property;
+        allocate(tableSize(expectedSize));
+    }
+
+    @Override
+    public Card get(String value) {
+        int i = find(value);
+        return i < 0 ? null : store.handle(slots[i]);
+    }
+
+    @Override
+    public Card putIfAbsent(String value, Card card) {
+        int i = find(value);
+        if (i >= 0) {
+            return store.handle(slots[i]);
+        }
+        if (2 * (size + 1) > slots.length) {
+            rehash(slots.length * 2);
+        }
+        insert(card.slot, hash(value));
+        size++;
+        return null;
+    }
+
+    @Override
+    public void remove(String value) {
+        int i = find(value);
+        if (i < 0) {
+            return;
+        }
+        // shift back every following entry of the run that may not stay behind the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; slots[j] != FREE; j = (j + 1) & mask) {
+            int home = hashes[j] & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                slots[hole] = slots[j];
+                hashes[hole] = hashes[j];
+                hole = j;
+            }
+        }
+        slots[hole] = FREE;
+        size--;
+    }
+
+    @Override
+    public void moved(String value, int from, int to) {
+        int hash = hash(value);
+        for (int i = hash & mask; slots[i] != FREE; i = (i + 1) & mask) {
+            if (slots[i] == from && hashes[i] == hash) {
+                slots[i] = to;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (2 * capacity > slots.length) {
+            rehash(tableSize(capacity));
+        }
+    }
+
+    /**
+     * @return the table index of the entry with this value, -1 if there is none
+     */
+    private int find(String value) {
+        int hash = hash(value);
+        byte[] utf8 = null;
+        for (int i = hash & mask; slots[i] != FREE; i = (i + 1) & mask) {
+            if (hashes[i] == hash) {
+                if (utf8 == null) {
+                    utf8 = value.getBytes(StandardCharsets.UTF_8);
+                }
+                if (store.textEquals(slots[i], property, utf8)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int slot, int hash) {
+        int i = hash & mask;
+        while (slots[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = slot;
+        hashes[i] = hash;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        allocate(capacity);
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != FREE) {
+                insert(oldSlots[i], oldHashes[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, FREE);
+        hashes = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the smallest power of two that holds {@code size} entries at most half full
+     */
+    private static int tableSize(int size) {
+        return Integer.highestOneBit(Math.max(size, 8) * 2 - 1) * 2;
+    }
+
+    private static int hash(String value) {
+        int hash = value.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,21 @@
+package flashcards;
+
+/**
+ * Where a {@link CardCollection} keeps the text of its cards.
+ */
+public enum StorageMode {
+    /**
+     * one {@code String} per value, and hash maps of the key values
+     */
+    HEAP,
+    /**
+     * UTF-8 in direct buffers outside the heap, and open-addressing tables of slots for the keys,
+     * so that the garbage collector never traces the text of a deck
+     */
+    OFF_HEAP,
+    /**
+     * text decks stay in their file, memory-mapped, and cards are read in when first used,
+     * see {@link PagedCardCollection}; other decks and the cards added later are kept on the heap
+     */
+    MAPPED
+}
@@ -0,0 +1,164 @@
+package flashcards;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Append-only UTF-8 storage of strings in direct buffers, outside the heap.
+ * A string is addressed by a {@code long}: the page in the high half, the offset in the low half.
+ * Each string is stored as its length in bytes followed by the bytes. Freed strings are only
+ * counted; the owner copies the live ones to a new arena once the garbage outweighs them.
+ * Reads do not change the buffers and may run concurrently; writes may not.
+ */
+class TextArena {
+
+    /**
+     * the address of the empty string, which takes no space
+     */
+    static final long EMPTY = -1;
+
+    private static final int MIN_PAGE = 1 << 16;
+    private static final int MAX_PAGE = 1 << 24;
+
+    private final ArrayList<ByteBuffer> pages = new ArrayList<>();
+    private ByteBuffer current;
+    private int nextPage;
+    private long storedBytes;
+    private long garbageBytes;
+
+    /**
+     * @param expectedBytes the number of bytes expected to be stored, to size the first page
+     */
+    TextArena(long expectedBytes) {
+        nextPage = (int) Math.max(MIN_PAGE, Math.min(MAX_PAGE, expectedBytes));
+    }
+
+    /**
+     * @return the address of a copy of {@code value}
+     */
+    long put(String value) {
+        if (value.isEmpty()) {
+            return EMPTY;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer page = reserve(4 + bytes.length);
+        long address = address(page.position());
+        page.putInt(bytes.length).put(bytes);
+        storedBytes += 4 + bytes.length;
+        return address;
+    }
+
+    String get(long address) {
+        if (address == EMPTY) {
+            return "";
+        }
+        ByteBuffer page = pages.get((int) (address >>> 32));
+        int offset = (int) address;
+        byte[] bytes = new byte[page.getInt(offset)];
+        page.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param utf8 the UTF-8 encoding of a string
+     * @return whether the string at {@code address} is that string
+     */
+    boolean matches(long address, byte[] utf8) {
+        if (address == EMPTY) {
+            return utf8.length == 0;
+        }
+        ByteBuffer page = pages.get((int) (address >>> 32));
+        int offset = (int) address;
+        int length = page.getInt(offset);
+        if (length != utf8.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (page.get(offset + 4 + i) != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * mark the string at {@code address} as garbage
+     */
+    void free(long address) {
+        if (address != EMPTY) {
+            garbageBytes += 4 + pages.get((int) (address >>> 32)).getInt((int) address);
+        }
+    }
+
+    /**
+     * copy a string of another arena into this one, without decoding it
+     * @return the address of the copy
+     */
+    long copy(TextArena from, long address) {
+        if (address == EMPTY) {
+            return EMPTY;
+        }
+        ByteBuffer source = from.pages.get((int) (address >>> 32));
+        int offset = (int) address;
+        int size = 4 + source.getInt(offset);
+        ByteBuffer page = reserve(size);
+        long copy = address(page.position());
+        page.put(source.slice(offset, size));
+        storedBytes += size;
+        return copy;
+    }
+
+    /**
+     * @return an arena that reads the strings stored so far, on any thread, while this one goes on
+     * storing; it is not to be written
+     */
+    TextArena view() {
+        TextArena view = new TextArena(0);
+        for (ByteBuffer page : pages) {
+            view.pages.add(page.duplicate());
+        }
+        view.storedBytes = storedBytes;
+        view.garbageBytes = garbageBytes;
+        return view;
+    }
+
+    /**
+     * @return the bytes of the strings that are not garbage
+     */
+    long liveBytes() {
+        return storedBytes - garbageBytes;
+    }
+
+    long garbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * @return the bytes allocated outside the heap
+     */
+    long capacity() {
+        long capacity = 0;
+        for (ByteBuffer page : pages) {
+            capacity += page.capacity();
+        }
+        return capacity;
+    }
+
+    private long address(int offset) {
+        return (long) (pages.size() - 1) << 32 | offset;
+    }
+
+    /**
+     * @return a page with {@code size} free bytes at its position
+     */
+    private ByteBuffer reserve(int size) {
+        if (current == null || current.remaining() < size) {
+            // pages double up to MAX_PAGE; a longer string gets a page of its own
+            current = ByteBuffer.allocateDirect(Math.max(nextPage, size));
+            pages.add(current);
+            nextPage = Math.min(MAX_PAGE, nextPage * 2);
+        }
+        return current;
+    }
+}